@@ -0,0 +1,147 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.annotation;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Index of the {@link MetricClass} classes of a jar or class directory, written at compile time by the jmetrics annotation processor to
+ * {@link #LOCATION}. One binary class name per line, lines starting with # are comments. Reading the index replaces a classpath scan of its jar
+ * or class directory, elements without an index still need to be scanned.
+ */
+public final class MetricClassIndex {
+    /** Location of the index in every jar or class directory. */
+    public static final String LOCATION = "META-INF/jmetrics/index";
+
+    /** Comment prefix. */
+    private static final String COMMENT = "#";
+
+    /**
+     * Utility class.
+     */
+    private MetricClassIndex() {
+    }
+
+    /**
+     * Reads all indexes visible to the class loader.
+     *
+     * @param loader class loader to read the indexes from
+     * @return class names of all indexes, null if the class loader has no index
+     * @throws IOException when an index cannot be read
+     */
+    public static Set<String> read(final ClassLoader loader) throws IOException {
+        final Enumeration<URL> indexes = loader.getResources(LOCATION);
+        if (!indexes.hasMoreElements()) {
+            return null;
+        }
+        final Set<String> classNames = new TreeSet<>();
+        while (indexes.hasMoreElements()) {
+            classNames.addAll(read(indexes.nextElement()));
+        }
+        return classNames;
+    }
+
+    /**
+     * Reads a single index, used to pick up the indexes of jars added after a first read.
+     *
+     * @param index location of the index
+     * @return class names of the index
+     * @throws IOException when the index cannot be read
+     */
+    public static Set<String> read(final URL index) throws IOException {
+        final Set<String> classNames = new TreeSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(index.openStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith(COMMENT)) {
+                    classNames.add(line);
+                }
+            }
+        }
+        return classNames;
+    }
+
+    /**
+     * Returns the jar or class directory holding an index, used to leave it out of a classpath scan.
+     *
+     * @param index location of the index
+     * @return jar file or class directory, null if the index is not in a local file
+     */
+    public static File root(final URL index) {
+        String location = index.toString();
+        if (!location.endsWith(LOCATION)) {
+            return null;
+        }
+        location = location.substring(0, location.length() - LOCATION.length());
+        if (location.startsWith("jar:") && location.endsWith("!/")) {
+            location = location.substring("jar:".length(), location.length() - "!/".length());
+        }
+        try {
+            final URI uri = new URI(location);
+            return "file".equals(uri.getScheme()) ? new File(uri) : null;
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Applies package white and black lists the way classpath scanners do, a package also matches its sub packages.
+     *
+     * @param className class name
+     * @param whitelistedPackages packages to accept, empty to accept all
+     * @param blacklistedPackages packages to reject
+     * @return true if the class is accepted
+     */
+    public static boolean accept(final String className, final List<String> whitelistedPackages, final List<String> blacklistedPackages) {
+        for (final String pkg : blacklistedPackages) {
+            if (inPackage(className, pkg)) {
+                return false;
+            }
+        }
+        if (whitelistedPackages.isEmpty()) {
+            return true;
+        }
+        for (final String pkg : whitelistedPackages) {
+            if (inPackage(className, pkg)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param className class name
+     * @param pkg package name
+     * @return true if the class is in the package or one of its sub packages
+     */
+    private static boolean inPackage(final String className, final String pkg) {
+        return className.startsWith(pkg) && className.length() > pkg.length() && className.charAt(pkg.length()) == '.';
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.annotation.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.lafaspot.jmetrics.annotation.MetricClass;
+import com.lafaspot.jmetrics.annotation.MetricClassIndex;
+
+/**
+ * Writes the {@link MetricClassIndex} of the compiled classes. Monitors generated from interfaces by {@link MonitorProcessor} are indexed in the
+ * following round, the interfaces themselves are not indexed.
+ *
+ * When only part of the sources is recompiled, entries of the previous index are kept as long as their class still exists and is annotated. The
+ * index is written even when empty, so removing the last monitor also removes it from the index. The processor therefore asks for all annotations,
+ * javac only runs processors whose annotations are present, it never claims them.
+ */
+@SupportedAnnotationTypes("*")
+public class MetricIndexProcessor extends AbstractProcessor {
+    /** Binary names of the annotated classes. */
+    private final Set<String> classNames = new TreeSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            keepPreviousEntries();
+            writeIndex();
+            return false;
+        }
+        for (final Element element : roundEnv.getElementsAnnotatedWith(MetricClass.class)) {
+            if (element.getKind() == ElementKind.CLASS) {
+                classNames.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the entries of the index left by an earlier compilation whose classes still exist.
+     */
+    private void keepPreviousEntries() {
+        try {
+            final FileObject previous = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", MetricClassIndex.LOCATION);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(previous.openInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    final TypeElement type = processingEnv.getElementUtils().getTypeElement(line.replace('$', '.'));
+                    if (type != null && type.getAnnotation(MetricClass.class) != null) {
+                        classNames.add(line);
+                    }
+                }
+            }
+        } catch (final IOException | IllegalArgumentException e) {
+            // no previous index
+        }
+    }
+
+    /**
+     * Writes the index.
+     */
+    private void writeIndex() {
+        try {
+            final FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", MetricClassIndex.LOCATION);
+            try (Writer writer = index.openWriter()) {
+                writer.write("# @MetricClass classes, generated by " + getClass().getName() + "\n");
+                for (final String className : classNames) {
+                    writer.write(className);
+                    writer.write('\n');
+                }
+            }
+        } catch (final IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Failed to write " + MetricClassIndex.LOCATION + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.annotation.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import com.lafaspot.jmetrics.annotation.Metric;
+import com.lafaspot.jmetrics.annotation.MetricClass;
+
+/**
+ * Generates a monitor from an interface annotated with {@link MetricClass}. Every method of the interface must be a getter returning long or int
+ * annotated with {@link Metric}. For an interface Foo the processor generates:
+ * <ul>
+ * <li>FooMonitorMBean, the MBean interface extending BaseMonitor and Foo,</li>
+ * <li>FooMonitor, the monitor with a SnapshotStateHandler state holding one striped counter per metric, the immutable snapshot of a
+ * completed window, the getters reading the snapshot and the writers.</li>
+ * </ul>
+ * Metrics of type "max" keep the largest value recorded in the window and get a recordX(long) writer, all other metrics are sums with addX(long)
+ * and incrementX() writers. The annotations of the interface and its methods are copied to the monitor so scanners find them, the monitor
+ * FACTORY creates instances without reflection.
+ *
+ * Classes annotated with {@link MetricClass} are hand written monitors and are left alone.
+ */
+@SupportedAnnotationTypes("com.lafaspot.jmetrics.annotation.MetricClass")
+public class MonitorProcessor extends AbstractProcessor {
+    /** Suffix of the generated monitor class. */
+    private static final String MONITOR_SUFFIX = "Monitor";
+    /** Suffix of MBean interfaces. */
+    private static final String MBEAN_SUFFIX = "MBean";
+    /** Metric type recorded with a max counter. */
+    private static final String MAX_TYPE = "max";
+    /** Package of the monitor runtime classes. */
+    private static final String COMMON = "com.lafaspot.jmetrics.common.";
+    /** Getter prefix. */
+    private static final String GETTER_PREFIX = "get";
+
+    /**
+     * Metric read by a generated getter.
+     */
+    private static final class MetricGetter {
+        /** Getter name. */
+        private final String getter;
+        /** Metric name used for the state field and the writers. */
+        private final String name;
+        /** Return type of the getter, long or int. */
+        private final String returnType;
+        /** Whether the metric keeps the maximum instead of the sum. */
+        private final boolean max;
+        /** Annotations copied to the generated getter. */
+        private final List<String> annotations;
+
+        /**
+         * @param getter getter name
+         * @param returnType return type of the getter
+         * @param max whether the metric keeps the maximum
+         * @param annotations annotations copied to the generated getter
+         */
+        private MetricGetter(final String getter, final String returnType, final boolean max, final List<String> annotations) {
+            this.getter = getter;
+            this.name = getter.substring(GETTER_PREFIX.length());
+            this.returnType = returnType;
+            this.max = max;
+            this.annotations = annotations;
+        }
+
+        /**
+         * @return name of the state field
+         */
+        private String field() {
+            return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+        }
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv) {
+        for (final Element element : roundEnv.getElementsAnnotatedWith(MetricClass.class)) {
+            if (element.getKind() != ElementKind.INTERFACE) {
+                continue;
+            }
+            final TypeElement type = (TypeElement) element;
+            final List<MetricGetter> getters = collectGetters(type);
+            if (getters == null) {
+                continue;
+            }
+            try {
+                writeMBean(type);
+                writeMonitor(type, getters);
+            } catch (final IOException e) {
+                error("Failed to write monitor for " + type.getQualifiedName() + ": " + e.getMessage(), type);
+            }
+        }
+        // other processors may still need the annotation
+        return false;
+    }
+
+    /**
+     * @param type the annotated interface
+     * @return the metrics of the interface, null after reporting an error
+     */
+    private List<MetricGetter> collectGetters(final TypeElement type) {
+        if (!type.getInterfaces().isEmpty()) {
+            error("@MetricClass interface must not extend other interfaces", type);
+            return null;
+        }
+        boolean valid = true;
+        final List<MetricGetter> getters = new ArrayList<>();
+        for (final ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.DEFAULT) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            final String getter = method.getSimpleName().toString();
+            final Metric metric = method.getAnnotation(Metric.class);
+            final TypeKind returnKind = method.getReturnType().getKind();
+            if (metric == null || !getter.startsWith(GETTER_PREFIX) || getter.length() == GETTER_PREFIX.length()
+                    || !method.getParameters().isEmpty() || (returnKind != TypeKind.LONG && returnKind != TypeKind.INT)) {
+                error("@MetricClass interface methods must be @Metric getters without parameters returning long or int", method);
+                valid = false;
+                continue;
+            }
+            final List<String> copied = new ArrayList<>();
+            for (final AnnotationMirror mirror : method.getAnnotationMirrors()) {
+                copied.add(render(mirror));
+            }
+            getters.add(new MetricGetter(getter, returnKind == TypeKind.LONG ? "long" : "int", MAX_TYPE.equals(metric.type()), copied));
+        }
+        return valid ? getters : null;
+    }
+
+    /**
+     * @param type the annotated interface
+     * @throws IOException when the source cannot be written
+     */
+    private void writeMBean(final TypeElement type) throws IOException {
+        final String name = type.getSimpleName() + MONITOR_SUFFIX + MBEAN_SUFFIX;
+        final StringBuilder src = new StringBuilder();
+        appendPackage(src, type);
+        src.append("/**\n * MBean interface generated from {@link ").append(type.getQualifiedName()).append("}, do not edit.\n */\n");
+        src.append("public interface ").append(name).append(" extends ").append(COMMON).append("BaseMonitor, ").append(type.getQualifiedName())
+                .append(" {\n}\n");
+        write(type, name, src);
+    }
+
+    /**
+     * @param type the annotated interface
+     * @param getters the metrics of the interface
+     * @throws IOException when the source cannot be written
+     */
+    private void writeMonitor(final TypeElement type, final List<MetricGetter> getters) throws IOException {
+        final String name = type.getSimpleName() + MONITOR_SUFFIX;
+        final String handler = COMMON + "SnapshotStateHandler<State, Stats>";
+        final String timeValue = "com.lafaspot.common.types.TimeValue";
+        final StringBuilder src = new StringBuilder();
+        appendPackage(src, type);
+        src.append("/**\n * Monitor generated from {@link ").append(type.getQualifiedName()).append("}, do not edit.\n */\n");
+        for (final AnnotationMirror mirror : type.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(MetricClass.class.getName())) {
+                src.append(render(mirror)).append('\n');
+            }
+        }
+        src.append("public final class ").append(name).append(" implements ").append(name).append(MBEAN_SUFFIX).append(" {\n");
+        src.append("    /** Creates monitors without reflection. */\n");
+        src.append("    public static final ").append(COMMON).append("MonitorFactory<").append(name).append("> FACTORY = ").append(name)
+                .append("::new;\n\n");
+        src.append("    /** Clock used for the write time. */\n");
+        src.append("    private static final ").append(COMMON).append("CoarseClock CLOCK = ").append(COMMON).append("CoarseClock.getDefault();\n\n");
+        src.append("    /** Get logger. */\n");
+        src.append("    private final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(this.getClass());\n\n");
+
+        src.append("    /**\n     * Counters of one window.\n     */\n");
+        src.append("    static final class State implements ").append(COMMON).append("MonitorStateHandler.State<State> {\n");
+        for (final MetricGetter getter : getters) {
+            final String counter = COMMON + (getter.max ? "StripedMaxCounter" : "StripedCounter");
+            src.append("        /** ").append(getter.name).append(". */\n");
+            src.append("        private final ").append(counter).append(' ').append(getter.field()).append(" = new ").append(counter).append("();\n");
+        }
+        src.append("\n        @Override\n        public void reset(final State stable) {\n");
+        for (final MetricGetter getter : getters) {
+            src.append("            ").append(getter.field()).append(".reset(stable.").append(getter.field()).append(");\n");
+        }
+        src.append("        }\n    }\n\n");
+
+        src.append("    /**\n     * Values of a completed window, built once per flip.\n     */\n");
+        src.append("    private static final class Stats {\n");
+        src.append("        /** Start time of the window. */\n        private final long start;\n");
+        src.append("        /** End time of the window. */\n        private final long end;\n");
+        for (final MetricGetter getter : getters) {
+            src.append("        /** ").append(getter.name).append(". */\n");
+            src.append("        private final ").append(getter.returnType).append(' ').append(getter.field()).append(";\n");
+        }
+        src.append("\n        /**\n         * @param completed state of the completed window\n         * @param start start time of the window\n");
+        src.append("         * @param end end time of the window\n         */\n");
+        src.append("        private Stats(final State completed, final long start, final long end) {\n");
+        src.append("            this.start = start;\n            this.end = end;\n");
+        for (final MetricGetter getter : getters) {
+            src.append("            ").append(getter.field()).append(" = ").append("int".equals(getter.returnType) ? "(int) " : "")
+                    .append("completed.").append(getter.field()).append(".get();\n");
+        }
+        src.append("        }\n    }\n\n");
+
+        src.append("    /** The state of the monitor. */\n    private final ").append(handler).append(" state;\n");
+        src.append("    /** Time after which the idle monitor expires. */\n    private final ").append(timeValue).append(" expire;\n");
+        src.append("    /** Time of the last write. */\n    private volatile long lastWrite;\n");
+        src.append("    /** Name of the MBean. */\n    private volatile String beanName;\n");
+        src.append("    /** Directory holding the monitor. */\n    private volatile ").append(COMMON).append("MonitorDirectory<?> directory;\n\n");
+
+        src.append("    /**\n     * @param window window of the monitor state\n");
+        src.append("     * @param expire time after which the idle monitor expires\n     */\n");
+        src.append("    public ").append(name).append("(final ").append(timeValue).append(" window, final ").append(timeValue).append(" expire) {\n");
+        src.append("        this.state = new ").append(handler).append("(new State(), new State(), window, Stats::new);\n");
+        src.append("        this.expire = expire;\n");
+        src.append("        this.lastWrite = CLOCK.currentTimeMillis();\n    }\n");
+
+        for (final MetricGetter getter : getters) {
+            if (getter.max) {
+                appendWriter(src, "Records a " + getter.name + " value.", "record" + getter.name, "final long value",
+                        getter.field() + ".record(value)");
+            } else {
+                appendWriter(src, "Adds to " + getter.name + ".", "add" + getter.name, "final long delta", getter.field() + ".add(delta)");
+                appendWriter(src, "Adds one to " + getter.name + ".", "increment" + getter.name, "", getter.field() + ".increment()");
+            }
+        }
+        for (final MetricGetter getter : getters) {
+            src.append('\n');
+            for (final String annotation : getter.annotations) {
+                src.append("    ").append(annotation).append('\n');
+            }
+            src.append("    @Override\n    public ").append(getter.returnType).append(' ').append(getter.getter).append("() {\n");
+            src.append("        return state.snapshot().").append(getter.field()).append(";\n    }\n");
+        }
+        appendBaseMonitor(src);
+        src.append("}\n");
+        write(type, name, src);
+    }
+
+    /**
+     * @param src source to append to
+     * @param doc javadoc summary
+     * @param method writer name
+     * @param parameter writer parameter, may be empty
+     * @param update statement updating the current state
+     */
+    private static void appendWriter(final StringBuilder src, final String doc, final String method, final String parameter,
+            final String update) {
+        src.append("\n    /**\n     * ").append(doc).append('\n');
+        if (!parameter.isEmpty()) {
+            src.append("     *\n     * @param ").append(parameter.substring(parameter.lastIndexOf(' ') + 1)).append(" the value\n");
+        }
+        src.append("     */\n    public void ").append(method).append('(').append(parameter).append(") {\n");
+        src.append("        final State current = state.beginWrite();\n        try {\n            current.").append(update).append(";\n");
+        src.append("        } finally {\n            state.endWrite(current);\n        }\n        touch();\n    }\n");
+    }
+
+    /**
+     * @param src source to append to
+     */
+    private static void appendBaseMonitor(final StringBuilder src) {
+        final String mbs = "java.lang.management.ManagementFactory.getPlatformMBeanServer()";
+        src.append("\n    /**\n     * Forces the flip of the monitor state, for tests.\n     */\n");
+        src.append("    public void flip() {\n        state.flip();\n    }\n");
+        src.append("\n    /**\n     * Updates the write time when the clock has moved.\n     */\n");
+        src.append("    private void touch() {\n        final long now = CLOCK.currentTimeMillis();\n");
+        src.append("        if (lastWrite != now) {\n            lastWrite = now;\n        }\n    }\n");
+        src.append("\n    @Override\n    public void setBeanName(final ").append(COMMON)
+                .append("MonitorDirectory<?> directory, final String beanName) {\n");
+        src.append("        this.directory = directory;\n        this.beanName = beanName;\n");
+        src.append("        final javax.management.MBeanServer mbs = ").append(mbs).append(";\n");
+        src.append("        try {\n            final javax.management.ObjectName name = new javax.management.ObjectName(beanName);\n");
+        src.append("            if (mbs.isRegistered(name)) {\n                mbs.unregisterMBean(name);\n            }\n");
+        src.append("            mbs.registerMBean(this, name);\n        } catch (final javax.management.JMException e) {\n");
+        src.append("            logger.warn(\"Failed to register MBean \" + beanName + \", the monitor keeps working without it\", e);\n");
+        src.append("        }\n    }\n");
+        src.append("\n    @Override\n    public long getWindow() {\n        return state.getWindow().toMillis();\n    }\n");
+        src.append("\n    @Override\n    public long getUptime() {\n        return System.currentTimeMillis() - state.getStartTime();\n    }\n");
+        src.append("\n    @Override\n    public long getLastUpdate() {\n        return state.snapshot().end;\n    }\n");
+        src.append("\n    @Override\n    public long getWindowStart() {\n        return state.snapshot().start;\n    }\n");
+        src.append("\n    @Override\n    public long getLastWrite() {\n        return lastWrite;\n    }\n");
+        src.append("\n    @Override\n    public long getExpireTime() {\n        return expire.toMillis();\n    }\n");
+        src.append("\n    @Override\n    public void unRegisterMBean() {\n");
+        src.append("        final String name = beanName;\n");
+        src.append("        if (name == null) {\n            // never registered\n            return;\n        }\n");
+        src.append("        try {\n            ").append(mbs).append(".unregisterMBean(new javax.management.ObjectName(name));\n");
+        src.append("        } catch (final javax.management.JMException e) {\n            // already unregistered\n        }\n");
+        src.append("        directory.removeMBean(name);\n    }\n");
+    }
+
+    /**
+     * @param src source to append to
+     * @param type the annotated interface
+     */
+    private void appendPackage(final StringBuilder src, final TypeElement type) {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        if (!pkg.isUnnamed()) {
+            src.append("package ").append(pkg.getQualifiedName()).append(";\n\n");
+        }
+    }
+
+    /**
+     * @param type the annotated interface
+     * @param simpleName simple name of the generated type
+     * @param src the source
+     * @throws IOException when the source cannot be written
+     */
+    private void write(final TypeElement type, final String simpleName, final CharSequence src) throws IOException {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        final String name = pkg.isUnnamed() ? simpleName : pkg.getQualifiedName() + "." + simpleName;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter()) {
+            writer.append(src);
+        }
+    }
+
+    /**
+     * @param mirror annotation
+     * @return source of the annotation
+     */
+    private static String render(final AnnotationMirror mirror) {
+        final StringBuilder src = new StringBuilder("@").append(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName());
+        final Map<? extends ExecutableElement, ? extends AnnotationValue> values = mirror.getElementValues();
+        if (!values.isEmpty()) {
+            src.append('(');
+            String separator = "";
+            for (final Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : values.entrySet()) {
+                src.append(separator).append(value.getKey().getSimpleName()).append(" = ").append(value.getValue());
+                separator = ", ";
+            }
+            src.append(')');
+        }
+        return src.toString();
+    }
+
+    /**
+     * @param message error message
+     * @param element element the error is reported on
+     */
+    private void error(final String message, final Element element) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
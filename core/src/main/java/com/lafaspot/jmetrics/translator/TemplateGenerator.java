@@ -24,11 +24,14 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -40,6 +43,7 @@ import com.github.mustachejava.Mustache;
 import com.github.mustachejava.MustacheFactory;
 import com.lafaspot.jmetrics.annotation.MetricCheck;
 import com.lafaspot.jmetrics.annotation.MetricClass;
+import com.lafaspot.jmetrics.annotation.MetricClassIndex;
 import com.lafaspot.logfast.logging.LogManager;
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfoList;
@@ -74,6 +78,49 @@ public class TemplateGenerator {
 		this.logManager = logManager;
 	}
 
+	/**
+	 * Loads the monitor classes listed by the compile time {@link MetricClassIndex} resources.
+	 *
+	 * @param allowFilters
+	 *            packages to accept
+	 * @param indexedRoots
+	 *            receives the canonical paths of the jars and class directories
+	 *            holding an index, the classpath scan skips them
+	 * @return monitor classes
+	 * @throws IOException
+	 *             when an index cannot be read
+	 */
+	private Set<Class<?>> loadIndexedClasses(final List<String> allowFilters, final Set<String> indexedRoots)
+			throws IOException {
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader() != null
+				? Thread.currentThread().getContextClassLoader() : this.getClass().getClassLoader();
+		final Set<String> classNames = new HashSet<>();
+		final Enumeration<URL> indexes = loader.getResources(MetricClassIndex.LOCATION);
+		while (indexes.hasMoreElements()) {
+			final URL index = indexes.nextElement();
+			classNames.addAll(MetricClassIndex.read(index));
+			final File root = MetricClassIndex.root(index);
+			if (root != null) {
+				indexedRoots.add(root.getCanonicalPath());
+			}
+		}
+		final Set<Class<?>> classes = new HashSet<>();
+		for (final String className : classNames) {
+			if (!MetricClassIndex.accept(className, allowFilters, Collections.<String>emptyList())) {
+				continue;
+			}
+			try {
+				final Class<?> clazz = Class.forName(className, false, loader);
+				if (!clazz.isInterface() && clazz.isAnnotationPresent(MetricClass.class)) {
+					classes.add(clazz);
+				}
+			} catch (final ClassNotFoundException | LinkageError e) {
+				// ignored like the classpath scan does
+			}
+		}
+		return classes;
+	}
+
 	/**
 	 * Generate the files based on the templates.
 	 *
@@ -98,12 +145,16 @@ public class TemplateGenerator {
 		if (!Files.isDirectory(Paths.get(templateSrcDir))) {
 			throw new IllegalArgumentException("Directory: " + templateSrcDir + " does not exist.");
 		}
-		Set<Class<?>> annotatedClazzez = new HashSet<>();
+		final Set<String> indexedRoots = new HashSet<>();
+		final Set<Class<?>> annotatedClazzez = loadIndexedClasses(allowFilters, indexedRoots);
+		// jars and class directories without an index are scanned
 		final ClassGraph classGraph = new ClassGraph();
 		final ScanResult scanResult = classGraph.enableAnnotationInfo().ignoreClassVisibility()
 				.whitelistPackages(allowFilters.toArray(new String[0]))
+				.filterClasspathElements(path -> !indexedRoots.contains(canonicalPath(new File(path))))
 				.removeTemporaryFilesAfterScan().scan();
-		final ClassInfoList classInfoList = scanResult.getClassesWithAnnotation(MetricClass.class.getName());
+		// interfaces are monitor declarations, the generated monitor classes carry their annotations
+		final ClassInfoList classInfoList = scanResult.getClassesWithAnnotation(MetricClass.class.getName()).getStandardClasses();
 		List<Class<?>> classes = classInfoList.loadClasses(true /* Ignore exceptions */);
 		annotatedClazzez.addAll(classes);
 
@@ -197,6 +248,19 @@ public class TemplateGenerator {
 		return methodNamesList;
 	}
 
+	/**
+	 * @param file
+	 *            jar or class directory
+	 * @return canonical path, the absolute path if it cannot be resolved
+	 */
+	private static String canonicalPath(final File file) {
+		try {
+			return file.getCanonicalPath();
+		} catch (final IOException e) {
+			return file.getAbsolutePath();
+		}
+	}
+
 	/**
 	 * Write the header to the output file based on the template type specified.
 	 *
@@ -47,6 +47,14 @@ public interface BaseMonitor {
      */
     long getLastUpdate();
 
+    /**
+     * @return Returns the start time of the window the metrics are read from, used to tag the values. The default assumes the last flip ended a
+     *         full window.
+     */
+    default long getWindowStart() {
+        return getLastUpdate() - getWindow();
+    }
+
     /**
      * @return Returns the time when last write was made.
      */
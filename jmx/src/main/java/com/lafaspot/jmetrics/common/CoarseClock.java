@@ -0,0 +1,133 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Low resolution wall clock for monitor timestamps. A daemon ticker thread stores System.currentTimeMillis() in a volatile field once per
+ * resolution, reading the time is a volatile read. Readings lag the system clock by up to one resolution.
+ *
+ * The shared clock returned by {@link #getDefault()} ticks every 10 milliseconds unless the system property jmetrics.clock.resolution sets a
+ * different resolution in milliseconds. Values that are not positive are ignored with a warning.
+ */
+public final class CoarseClock {
+    /** System property holding the resolution of the default clock in milliseconds. */
+    public static final String RESOLUTION_PROPERTY = "jmetrics.clock.resolution";
+
+    /** Default resolution in milliseconds. */
+    private static final long DEFAULT_RESOLUTION_MILLIS = 10;
+
+    /** Holder of the shared clock, started on first use. */
+    private static final class DefaultHolder {
+        /** The shared clock. */
+        private static final CoarseClock INSTANCE = new CoarseClock(new TimeValue(positiveProperty(RESOLUTION_PROPERTY,
+                DEFAULT_RESOLUTION_MILLIS), TimeUnit.MILLISECONDS));
+    }
+
+    /** Tick interval in milliseconds. */
+    private final long resolution;
+    /** Time of the last tick. */
+    private volatile long now = System.currentTimeMillis();
+    /** Cleared by close. */
+    private volatile boolean running = true;
+
+    /**
+     * Creates the clock and starts its ticker thread.
+     *
+     * @param resolution tick interval
+     */
+    public CoarseClock(@Nonnull final TimeValue resolution) {
+        this.resolution = resolution.toMillis();
+        if (this.resolution <= 0) {
+            throw new IllegalArgumentException("Invalid clock resolution " + resolution);
+        }
+        final Thread ticker = new Thread(this::tick, "CoarseClock-" + this.resolution + "ms");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * @return the shared clock
+     */
+    public static CoarseClock getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * @return time of the last tick in milliseconds since the epoch
+     */
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * @return tick interval in milliseconds
+     */
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Stops the ticker thread, the clock keeps returning the time of the last tick.
+     */
+    public void close() {
+        running = false;
+    }
+
+    /**
+     * Reads a positive long system property. A bad value must not fail the class initialization of the shared instances, every monitor would
+     * fail with it.
+     *
+     * @param property system property
+     * @param defaultValue value used when the property is not set, not a number or not positive
+     * @return the property value
+     */
+    static long positiveProperty(@Nonnull final String property, final long defaultValue) {
+        final Long value = Long.getLong(property);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value <= 0) {
+            LoggerFactory.getLogger(CoarseClock.class).warn("Ignoring " + property + "=" + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+        return value;
+    }
+
+    /**
+     * Ticker thread loop.
+     */
+    private void tick() {
+        while (running) {
+            try {
+                Thread.sleep(resolution);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            now = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.Closeable;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Flips MonitorStateHandlers at their window boundaries from a single daemon thread, so idle monitors do not report stale windows and readers
+ * never pay for a flip. Boundaries are aligned to the wall clock, multiples of the window since the epoch, so all monitors with the same window
+ * share the same window edges. The flip time of a window is its boundary, even when the timer runs late.
+ *
+ * The handlers are kept in a hashed timing wheel, each tick processes one bucket, the cost of a tick does not depend on the number of handlers.
+ * Ticks are paced with System.nanoTime(), the wall clock is only used for the boundaries, a wall clock step back does not stall the ticks. A
+ * handler whose boundary is not reached yet after a step back waits in the wheel again.
+ * Handlers are weakly referenced, a handler that is no longer used is dropped without being cancelled.
+ *
+ * The shared scheduler returned by {@link #getDefault()} ticks every 10 milliseconds unless the system property jmetrics.flip.tick sets a
+ * different tick in milliseconds. Values that are not positive are ignored with a warning.
+ */
+public final class FlipScheduler implements Closeable {
+    /** System property holding the tick of the default scheduler in milliseconds. */
+    public static final String TICK_PROPERTY = "jmetrics.flip.tick";
+
+    /** Default tick in milliseconds. */
+    private static final long DEFAULT_TICK_MILLIS = 10;
+
+    /** Default number of buckets of the wheel. */
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Holder of the shared scheduler, started on first use. */
+    private static final class DefaultHolder {
+        /** The shared scheduler. */
+        private static final FlipScheduler INSTANCE = new FlipScheduler(new TimeValue(CoarseClock.positiveProperty(TICK_PROPERTY,
+                DEFAULT_TICK_MILLIS), TimeUnit.MILLISECONDS), DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Registration of a handler, cancel stops the flips.
+     */
+    public static final class Registration {
+        /** The flipped handler. */
+        private final WeakReference<MonitorStateHandler<?>> handler;
+        /** Window in milliseconds. */
+        private final long window;
+        /** Next boundary in milliseconds, only used by the timer thread. */
+        private long boundary;
+        /** Full turns of the wheel left before the boundary, only used by the timer thread. */
+        private long rounds;
+        /** Set by cancel. */
+        private volatile boolean cancelled;
+
+        /**
+         * @param handler the flipped handler
+         * @param window window in milliseconds
+         */
+        private Registration(final MonitorStateHandler<?> handler, final long window) {
+            this.handler = new WeakReference<MonitorStateHandler<?>>(handler);
+            this.window = window;
+        }
+
+        /**
+         * Stops the flips of the handler, a flip in progress completes.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return true once cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /** Get logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** Tick duration in milliseconds. */
+    private final long tick;
+
+    /** Buckets of the wheel, only used by the timer thread. */
+    private final List<List<Registration>> wheel;
+
+    /** Mask of the bucket index. */
+    private final int mask;
+
+    /** Registrations not yet in the wheel. */
+    private final Queue<Registration> added = new ConcurrentLinkedQueue<Registration>();
+
+    /** System.nanoTime() of tick 0. */
+    private final long startNanos;
+
+    /** The timer thread. */
+    private final Thread timer;
+
+    /** Number of ticks processed. */
+    private volatile long ticks;
+
+    /** Number of flips done. */
+    private volatile long flips;
+
+    /** Cleared by close. */
+    private volatile boolean running = true;
+
+    /**
+     * Creates the scheduler and starts its timer thread.
+     *
+     * @param tickDuration tick interval, the maximum delay of a flip after its boundary
+     * @param wheelSize number of buckets of the wheel, rounded up to a power of 2
+     */
+    public FlipScheduler(@Nonnull final TimeValue tickDuration, final int wheelSize) {
+        this.tick = tickDuration.toMillis();
+        if (tick <= 0) {
+            throw new IllegalArgumentException("Invalid tick " + tickDuration);
+        }
+        if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid wheel size " + wheelSize);
+        }
+        final int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.mask = Math.max(size, 1) - 1;
+        this.wheel = new ArrayList<List<Registration>>(mask + 1);
+        for (int i = 0; i <= mask; i++) {
+            wheel.add(new ArrayList<Registration>());
+        }
+        this.startNanos = System.nanoTime();
+        this.timer = new Thread(this::run, "FlipScheduler-" + tick + "ms");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /**
+     * @return the shared scheduler
+     */
+    public static FlipScheduler getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * Flips the handler at every window boundary from now on.
+     *
+     * @param handler the handler
+     * @return registration to cancel the flips
+     */
+    public Registration schedule(@Nonnull final MonitorStateHandler<?> handler) {
+        if (!running) {
+            throw new IllegalStateException("FlipScheduler closed");
+        }
+        final long window = handler.getWindow().toMillis();
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid window " + handler.getWindow());
+        }
+        final Registration registration = new Registration(handler, window);
+        registration.boundary = nextBoundary(System.currentTimeMillis(), window);
+        added.add(registration);
+        return registration;
+    }
+
+    /**
+     * @return tick interval in milliseconds
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * @return number of flips done
+     */
+    public long getFlips() {
+        return flips;
+    }
+
+    /**
+     * Stops the timer thread, the handlers are no longer flipped.
+     */
+    @Override
+    public void close() {
+        running = false;
+        timer.interrupt();
+    }
+
+    /**
+     * @param now time in milliseconds
+     * @param window window in milliseconds
+     * @return first wall clock aligned window boundary after now
+     */
+    static long nextBoundary(final long now, final long window) {
+        return Math.floorDiv(now, window) * window + window;
+    }
+
+    /**
+     * Timer thread loop.
+     */
+    private void run() {
+        final long tickNanos = TimeUnit.MILLISECONDS.toNanos(tick);
+        while (running) {
+            final long deadline = startNanos + ticks * tickNanos;
+            long wait = deadline - System.nanoTime();
+            while (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                wait = deadline - System.nanoTime();
+            }
+            try {
+                processTick(ticks, System.currentTimeMillis());
+            } catch (final RuntimeException e) {
+                logger.error("Flip tick failed", e);
+            }
+            ticks = ticks + 1;
+        }
+    }
+
+    /**
+     * Adds the new registrations to the wheel, then flips the handlers of the tick's bucket whose boundary is reached.
+     *
+     * @param current the tick
+     * @param now current wall clock time
+     */
+    private void processTick(final long current, final long now) {
+        Registration registration;
+        while ((registration = added.poll()) != null) {
+            place(registration, current, current, now);
+        }
+        final List<Registration> bucket = wheel.get((int) (current & mask));
+        int kept = 0;
+        final int size = bucket.size();
+        for (int i = 0; i < size; i++) {
+            registration = bucket.get(i);
+            final MonitorStateHandler<?> handler = registration.handler.get();
+            if (registration.cancelled || handler == null) {
+                continue;
+            }
+            if (registration.rounds > 0) {
+                registration.rounds--;
+                bucket.set(kept++, registration);
+                continue;
+            }
+            if (now < registration.boundary) {
+                // the wall clock stepped back since the registration was placed
+                place(registration, current, current + 1, now);
+                continue;
+            }
+            try {
+                if (handler.flipAt(registration.boundary)) {
+                    flips++;
+                }
+            } catch (final RuntimeException e) {
+                logger.error("Flip of " + handler + " failed", e);
+            }
+            registration.boundary = Math.max(registration.boundary + registration.window, nextBoundary(now, registration.window));
+            // the next boundary is at least one tick away, its bucket can only be this one after a full turn
+            place(registration, current, current + 1, now);
+        }
+        // placed entries were appended after the processed ones
+        bucket.subList(kept, size).clear();
+    }
+
+    /**
+     * Puts a registration in the bucket of the first tick at or after its boundary.
+     *
+     * @param registration the registration
+     * @param current the tick being processed
+     * @param earliest first tick the registration may fire on
+     * @param now current wall clock time
+     */
+    private void place(final Registration registration, final long current, final long earliest, final long now) {
+        final long due = Math.max(current + Math.floorDiv(registration.boundary - now + tick - 1, tick), earliest);
+        registration.rounds = (due - earliest) / (mask + 1);
+        wheel.get((int) (due & mask)).add(registration);
+    }
+}
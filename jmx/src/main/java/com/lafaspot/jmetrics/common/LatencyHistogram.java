@@ -0,0 +1,189 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
+
+/**
+ * Fixed size log-linear latency histogram for monitor state. Values below 2^precision get their own bucket, larger values share buckets whose
+ * width grows with the power of two they fall in, so the relative error stays below 2^-precision. Values up to 2^36 (about 19 hours in
+ * microseconds) are tracked, larger values are counted in the last bucket.
+ *
+ * Recording is one atomic increment on a preallocated array. The histogram is reset on flip and can be merged across windows and monitors.
+ */
+public class LatencyHistogram implements State<LatencyHistogram>, Mergeable<LatencyHistogram> {
+    /** Default number of linear sub buckets bits. */
+    public static final int DEFAULT_PRECISION = 4;
+    /** Largest tracked value bits. */
+    private static final int MAX_VALUE_BITS = 36;
+    /** Largest tracked value. */
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /** Linear sub bucket bits. */
+    private final int precision;
+    /** Bucket counts. */
+    private final AtomicLongArray counts;
+    /** Sum of the recorded values. */
+    private final LongAdder sum = new LongAdder();
+    /** Largest recorded value. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a histogram with {@link #DEFAULT_PRECISION}.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision linear sub bucket bits, from 1 to 10
+     */
+    public LatencyHistogram(final int precision) {
+        if (precision < 1 || precision > 10) {
+            throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+        this.precision = precision;
+        this.counts = new AtomicLongArray((MAX_VALUE_BITS - precision + 1) << precision);
+    }
+
+    /**
+     * Records a value, negative values are recorded as 0.
+     *
+     * @param value the value
+     */
+    public void record(final long value) {
+        final long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(index(v));
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return largest recorded value
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return mean of the recorded values, 0 if empty
+     */
+    public double getMean() {
+        final long count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the value at a percentile, the upper bound of the bucket it falls in capped at the largest recorded value.
+     *
+     * @param percentile from 0 to 100
+     * @return value at the percentile, 0 if empty
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * @return linear sub bucket bits
+     */
+    public int getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public void reset(@Nonnull final LatencyHistogram stableState) {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        sum.reset();
+        max.reset();
+    }
+
+    @Override
+    public void merge(@Nonnull final LatencyHistogram other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Precision mismatch " + other.precision + " != " + precision);
+        }
+        for (int i = 0; i < counts.length(); i++) {
+            final long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * @param value value from 0 to MAX_VALUE
+     * @return bucket index
+     */
+    private int index(final long value) {
+        final int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - precision);
+        return (shift << precision) + (int) (value >>> shift);
+    }
+
+    /**
+     * @param index bucket index
+     * @return largest value counted in the bucket
+     */
+    private long upperBound(final int index) {
+        final int shift = Math.max(0, (index >>> precision) - 1);
+        final long lower = (long) (index - (shift << precision)) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", max=" + getMax();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Runs MBean registrations and unregistrations on a background thread so request threads do not wait on the MBeanServer. Tasks are run in
+ * submission order, several queued tasks are drained and run per wake up. Once closed, tasks run on the calling thread.
+ *
+ * The queue is unbounded on purpose. A task can neither be dropped, that would leak or lose an MBean, nor run on the caller while tasks
+ * for the same name are still queued, that would reorder a registration and its unregistration. Its length is bounded by the monitors
+ * created and evicted between two wake ups, {@link #getPendingCount()} exposes it.
+ *
+ * @see MonitorDirectory#setRegistrar(MBeanRegistrar)
+ */
+public class MBeanRegistrar {
+    /** Get logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    /** Pending tasks. */
+    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    /** Maximum number of tasks run per wake up. */
+    private final int batchSize;
+    /** Number of tasks run. */
+    private final AtomicLong completedCount = new AtomicLong();
+    /** Number of batches run. */
+    private final AtomicLong batchCount = new AtomicLong();
+    /** Registrar thread. */
+    private final Thread thread;
+    /** Cleared by close. */
+    private volatile boolean running = true;
+
+    /**
+     * Creates the registrar and starts its daemon thread.
+     *
+     * @param batchSize maximum number of tasks run per wake up
+     */
+    public MBeanRegistrar(final int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize);
+        }
+        this.batchSize = batchSize;
+        thread = new Thread(this::run, "MBeanRegistrar");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a registration or unregistration task, runs it on the calling thread once the registrar is closed. Directories may still hold a
+     * closed registrar, their lookups must not fail.
+     *
+     * @param task task to run on the registrar thread
+     */
+    public void execute(@Nonnull final Runnable task) {
+        if (!running) {
+            runTask(task);
+            return;
+        }
+        queue.add(task);
+        // closed meanwhile, the registrar thread may have exited before the task was queued
+        if (!running && queue.remove(task)) {
+            runTask(task);
+        }
+    }
+
+    /**
+     * Waits until all tasks queued before this call have run.
+     *
+     * @param timeout maximum time to wait
+     * @return true if the tasks have run, false on timeout
+     * @throws InterruptedException when interrupted
+     */
+    public boolean flush(@Nonnull final TimeValue timeout) throws InterruptedException {
+        if (!running) {
+            thread.join(timeout.toMillis());
+            return !thread.isAlive();
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        execute(done::countDown);
+        return done.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of queued tasks
+     */
+    public int getPendingCount() {
+        return queue.size();
+    }
+
+    /**
+     * @return number of tasks run
+     */
+    public long getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return number of batches run
+     */
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * Stops the registrar thread once the queued tasks have run, later tasks run on the calling thread.
+     */
+    public void close() {
+        running = false;
+        queue.add(() -> { });
+    }
+
+    /**
+     * Registrar thread loop.
+     */
+    private void run() {
+        final List<Runnable> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                batch.add(queue.take());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            queue.drainTo(batch, batchSize - 1);
+            for (final Runnable task : batch) {
+                runTask(task);
+            }
+            completedCount.addAndGet(batch.size());
+            batchCount.incrementAndGet();
+            batch.clear();
+        }
+    }
+
+    /**
+     * @param task task to run, failures are logged
+     */
+    private void runTask(final Runnable task) {
+        try {
+            task.run();
+        } catch (final RuntimeException e) {
+            logger.error("MBean registration task failed", e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Monitor state that can absorb the values of another instance, used to combine windows or monitors.
+ *
+ * @param <T> type of the merged state
+ */
+public interface Mergeable<T> {
+    /**
+     * Adds the values of the other state to this one, the other state is not changed.
+     *
+     * @param other state to merge
+     */
+    void merge(@Nonnull T other);
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.jmetrics.annotation.Metric;
+
+/**
+ * Getters of the numeric {@link Metric} attributes of a monitor class, resolved once per class to method handles returning double. Metrics
+ * are ordered by attribute name, the name of the getter without the get prefix.
+ */
+final class MetricAccessors {
+    /** Accessors by monitor class. */
+    private static final ClassValue<MetricAccessors> ACCESSORS = new ClassValue<MetricAccessors>() {
+        @Override
+        protected MetricAccessors computeValue(final Class<?> type) {
+            return new MetricAccessors(type);
+        }
+    };
+    /** Monitor attribute prefix. */
+    private static final String GET = "get";
+    /** Type of the accessors. */
+    private static final MethodType ACCESSOR_TYPE = MethodType.methodType(double.class, BaseMonitor.class);
+
+    /** Attribute names. */
+    private final String[] names;
+    /** Getters of type (BaseMonitor)double, same order as names. */
+    private final MethodHandle[] getters;
+    /** Metric annotations, same order as names. */
+    private final Metric[] metrics;
+
+    /**
+     * @param type monitor class
+     */
+    private MetricAccessors(final Class<?> type) {
+        final Logger logger = LoggerFactory.getLogger(MetricAccessors.class);
+        final Map<String, MethodHandle> byName = new TreeMap<>();
+        final Map<String, Metric> annotations = new TreeMap<>();
+        for (final Method method : type.getMethods()) {
+            if (!method.getName().startsWith(GET) || method.getAnnotation(Metric.class) == null || method.getParameterCount() != 0
+                    || !isNumeric(method.getReturnType())) {
+                continue;
+            }
+            try {
+                final String name = method.getName().substring(GET.length());
+                byName.put(name, MethodHandles.publicLookup().unreflect(method).asType(ACCESSOR_TYPE));
+                annotations.put(name, method.getAnnotation(Metric.class));
+            } catch (final IllegalAccessException e) {
+                logger.warn("Metric getter not accessible: " + method);
+            }
+        }
+        names = byName.keySet().toArray(new String[0]);
+        getters = byName.values().toArray(new MethodHandle[0]);
+        metrics = annotations.values().toArray(new Metric[0]);
+    }
+
+    /**
+     * @param type return type
+     * @return true for numeric primitives and their wrappers
+     */
+    private static boolean isNumeric(final Class<?> type) {
+        final Class<?> primitive = MethodType.methodType(type).unwrap().returnType();
+        return primitive.isPrimitive() && primitive != boolean.class && primitive != char.class && primitive != void.class;
+    }
+
+    /**
+     * @param type monitor class
+     * @return accessors of the class, resolved on first use
+     */
+    @Nonnull
+    static MetricAccessors of(@Nonnull final Class<?> type) {
+        return ACCESSORS.get(type);
+    }
+
+    /**
+     * @return attribute names, not copied
+     */
+    @Nonnull
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * @param index attribute index
+     * @return getter of type (BaseMonitor)double
+     */
+    @Nonnull
+    MethodHandle getGetter(final int index) {
+        return getters[index];
+    }
+
+    /**
+     * @param index attribute index
+     * @return metric annotation of the getter
+     */
+    @Nonnull
+    Metric getMetric(final int index) {
+        return metrics[index];
+    }
+}
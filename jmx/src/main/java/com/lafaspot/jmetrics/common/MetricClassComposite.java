@@ -59,11 +59,12 @@ public class MetricClassComposite {
         final OpenType[] methodTypes = new OpenType[size];
         for (int i = 0; i < size; i++) {
             final Method method = methods.get(i);
-            methodNames[i] = method.getName();
-            methodDescriptions[i] = METHOD_DESCRIPTION + methodNames[i];
+            methodNames[i] = OpenTypeCache.intern(method.getName());
+            methodDescriptions[i] = OpenTypeCache.intern(METHOD_DESCRIPTION + methodNames[i]);
             methodTypes[i] = methodCompositeType.getCompositeType();
         }
-        metricClassCompositeType = new CompositeType(className, metricClassName, methodNames, methodDescriptions, methodTypes);
+        // rescans and other scanners get the same instance
+        metricClassCompositeType = OpenTypeCache.compositeType(className, metricClassName, methodNames, methodDescriptions, methodTypes);
     }
 
     /**
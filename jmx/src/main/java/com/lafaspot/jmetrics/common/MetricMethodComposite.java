@@ -24,7 +24,7 @@ import javax.management.openmbean.OpenType;
 import javax.management.openmbean.SimpleType;
 
 /**
- * CompositeType for metric method. Same for all method.
+ * CompositeType for metric method. Same for all method, all instances share one CompositeType.
  *
  * @author KevinL
  *
@@ -73,7 +73,7 @@ public class MetricMethodComposite {
         final OpenType[] methodMetricTypes = new OpenType[2];
         methodMetricTypes[0] = SimpleType.STRING;
         methodMetricTypes[1] = SimpleType.STRING;
-        methodCompositeType = new CompositeType(METHOD_COMPOSITETYPE_NAME, METHOD_COMPOSITETYPE_DESCRIPTION, methodCompositeMetric,
+        methodCompositeType = OpenTypeCache.compositeType(METHOD_COMPOSITETYPE_NAME, METHOD_COMPOSITETYPE_DESCRIPTION, methodCompositeMetric,
                     methodCompositeDescriptions, methodMetricTypes);
     }
 
@@ -0,0 +1,402 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Pushes the metrics of monitor directories to a {@link MetricSink}. Each report takes a {@link MonitorSnapshot} of every directory, the stable
+ * values of the last window, and batches them into frames of StatsD gauge lines, prefix.monitor.metric:value|g. Frames go through a bounded
+ * queue to a sender thread. When the sink is slower than the reports, frames which do not fit in the queue are dropped and counted, the
+ * reporting thread never waits for the sink.
+ *
+ * Scheduled reports run just after the wall clock aligned boundaries of their period, the boundaries at which {@link FlipScheduler} and aligned
+ * handlers flip, and only send the monitors whose window start moved since their last scheduled report.
+ */
+public class MetricReporter implements Closeable {
+    /** Default frame size, fits in one datagram on a 1500 bytes MTU. */
+    public static final int DEFAULT_FRAME_SIZE = 1432;
+    /** Default number of queued frames. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    /** Largest magnitude of a double rendered as an integer. */
+    private static final double MAX_INTEGER = 1e15;
+    /** Time to wait for the sender thread on close in milliseconds. */
+    private static final long CLOSE_TIMEOUT_MILLIS = 1000;
+    /** Time after a period boundary at which a scheduled report runs, lets the flips at the boundary complete. */
+    private static final long BOUNDARY_DELAY_MILLIS = 50;
+    /** Frame queued by close, the sender closes the sink when it takes it. */
+    private static final ByteBuffer CLOSE_FRAME = ByteBuffer.allocate(0);
+
+    /** Get logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    /** Sink. */
+    private final MetricSink sink;
+    /** Prefix of the metric names, empty for none. */
+    private final String prefix;
+    /** Maximum frame size in bytes. */
+    private final int frameSize;
+    /** Frames waiting for the sender. */
+    private final BlockingQueue<ByteBuffer> queue;
+    /** Directories to report. */
+    private final List<MonitorDirectory<?>> directories = new CopyOnWriteArrayList<>();
+    /** Frames sent. */
+    private final LongAdder sentFrames = new LongAdder();
+    /** Frames dropped because the queue was full. */
+    private final LongAdder droppedFrames = new LongAdder();
+    /** Frames the sink failed to send. */
+    private final LongAdder failedFrames = new LongAdder();
+    /** Lines dropped because they do not fit in a frame. */
+    private final LongAdder droppedLines = new LongAdder();
+    /** Sender thread. */
+    private final Thread sender;
+    /** Runs the scheduled reports, null when not started, guarded by this. */
+    private ScheduledExecutorService scheduler;
+    /** Window start of each monitor at its last scheduled report, by directory, only used by the scheduler thread and removeDirectory. */
+    private final Map<MonitorDirectory<?>, Map<String, Long>> reportedWindows = new ConcurrentHashMap<>();
+    /** Set on close. */
+    private volatile boolean closed;
+    /** Failure of the sink close on the sender thread. */
+    private volatile IOException closeFailure;
+
+    /**
+     * @param sink sink receiving the frames
+     * @param prefix prefix of the metric names, empty for none
+     */
+    public MetricReporter(@Nonnull final MetricSink sink, @Nonnull final String prefix) {
+        this(sink, prefix, DEFAULT_QUEUE_CAPACITY, DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * @param sink sink receiving the frames
+     * @param prefix prefix of the metric names, empty for none
+     * @param queueCapacity maximum number of frames waiting for the sink
+     * @param frameSize maximum frame size in bytes
+     */
+    public MetricReporter(@Nonnull final MetricSink sink, @Nonnull final String prefix, final int queueCapacity, final int frameSize) {
+        if (frameSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame size " + frameSize);
+        }
+        this.sink = sink;
+        this.prefix = prefix.isEmpty() ? "" : prefix + ".";
+        this.frameSize = frameSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        sender = new Thread(this::sendFrames, "MetricReporter-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Adds a directory to report.
+     *
+     * @param directory monitor directory
+     */
+    public void addDirectory(@Nonnull final MonitorDirectory<?> directory) {
+        directories.add(directory);
+    }
+
+    /**
+     * Removes a reported directory.
+     *
+     * @param directory monitor directory
+     */
+    public void removeDirectory(@Nonnull final MonitorDirectory<?> directory) {
+        directories.remove(directory);
+        reportedWindows.remove(directory);
+    }
+
+    /**
+     * Starts reporting at each wall clock aligned boundary of the period, shortly after the flips of monitors with the same window. The next
+     * report is scheduled from the wall clock after each run, so reports do not drift away from the boundaries. A monitor is only reported
+     * again once its window start moved, a report running before a flip does not send the same window twice.
+     *
+     * @param period time between two reports, usually the window of the monitors
+     */
+    public synchronized void start(@Nonnull final TimeValue period) {
+        if (closed || scheduler != null) {
+            throw new IllegalStateException("Reporter closed or already started");
+        }
+        final long periodMillis = period.toMillis();
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("Invalid period " + period);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "MetricReporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleReport(scheduler, periodMillis);
+    }
+
+    /**
+     * @param executor scheduler running the reports
+     * @param periodMillis period in milliseconds
+     */
+    private void scheduleReport(final ScheduledExecutorService executor, final long periodMillis) {
+        try {
+            executor.schedule(() -> scheduledReport(executor, periodMillis), delayToReport(System.currentTimeMillis(), periodMillis),
+                    TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    /**
+     * @param now time in milliseconds
+     * @param periodMillis period in milliseconds
+     * @return delay in milliseconds until the report following the next boundary of the period
+     */
+    static long delayToReport(final long now, final long periodMillis) {
+        return FlipScheduler.nextBoundary(now, periodMillis) + BOUNDARY_DELAY_MILLIS - now;
+    }
+
+    /**
+     * Report run by the scheduler, a failure must not cancel the next ones.
+     *
+     * @param executor scheduler running the reports
+     * @param periodMillis period in milliseconds
+     */
+    private void scheduledReport(final ScheduledExecutorService executor, final long periodMillis) {
+        try {
+            report(true);
+        } catch (final RuntimeException e) {
+            logger.error("Metric report failed", e);
+        } finally {
+            scheduleReport(executor, periodMillis);
+        }
+    }
+
+    /**
+     * Snapshots all directories and queues the frames, frames which do not fit in the queue are dropped. All monitors are reported, also the
+     * windows already sent by scheduled reports.
+     */
+    public void report() {
+        report(false);
+    }
+
+    /**
+     * @param newWindows true to only report the monitors whose window start moved since their last scheduled report
+     */
+    private void report(final boolean newWindows) {
+        final StringBuilder line = new StringBuilder();
+        ByteBuffer frame = ByteBuffer.allocate(frameSize);
+        for (final MonitorDirectory<?> directory : directories) {
+            final MonitorSnapshot snapshot = directory.snapshot();
+            final String[] metrics = snapshot.getMetricNames();
+            final Map<String, Long> reported = newWindows ? reportedWindows.get(directory) : null;
+            final Map<String, Long> windows = newWindows ? new HashMap<>() : null;
+            for (int i = 0; i < snapshot.getMonitorCount(); i++) {
+                if (newWindows) {
+                    final long windowStart = snapshot.getWindowStart(i);
+                    windows.put(snapshot.getMonitorName(i), windowStart);
+                    final Long last = reported != null ? reported.get(snapshot.getMonitorName(i)) : null;
+                    if (last != null && last == windowStart) {
+                        continue;
+                    }
+                }
+                final String monitor = sanitize(snapshot.getMonitorName(i));
+                for (int m = 0; m < metrics.length; m++) {
+                    final double value = snapshot.getValue(m, i);
+                    // NaN is a metric the monitor does not have
+                    if (Double.isNaN(value)) {
+                        continue;
+                    }
+                    line.setLength(0);
+                    line.append(prefix).append(monitor).append('.').append(metrics[m]).append(':');
+                    if (value == (long) value && Math.abs(value) < MAX_INTEGER) {
+                        line.append((long) value);
+                    } else {
+                        line.append(value);
+                    }
+                    line.append("|g\n");
+                    final byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                    if (bytes.length > frameSize) {
+                        droppedLines.increment();
+                        continue;
+                    }
+                    if (bytes.length > frame.remaining()) {
+                        enqueue(frame);
+                        frame = ByteBuffer.allocate(frameSize);
+                    }
+                    frame.put(bytes);
+                }
+            }
+            // monitors removed from the directory are forgotten
+            if (newWindows && directories.contains(directory)) {
+                reportedWindows.put(directory, windows);
+            }
+        }
+        if (frame.position() > 0) {
+            enqueue(frame);
+        }
+    }
+
+    /**
+     * @param frame frame to queue, flipped here
+     */
+    private void enqueue(final ByteBuffer frame) {
+        frame.flip();
+        if (closed || !queue.offer(frame)) {
+            droppedFrames.increment();
+        }
+    }
+
+    /**
+     * Replaces the characters of the StatsD line syntax and white space in a monitor name.
+     *
+     * @param name monitor name
+     * @return name usable in a StatsD line
+     */
+    static String sanitize(@Nonnull final String name) {
+        final StringBuilder sanitized = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            sanitized.append(c == ':' || c == '|' || c == '@' || c == '#' || Character.isWhitespace(c) ? '_' : c);
+        }
+        return sanitized.toString();
+    }
+
+    /**
+     * Sender thread, hands the queued frames to the sink until the reporter is closed, then closes the sink. The sink is only used by this
+     * thread.
+     */
+    private void sendFrames() {
+        boolean failing = false;
+        try {
+            while (true) {
+                final ByteBuffer frame;
+                try {
+                    frame = queue.take();
+                } catch (final InterruptedException e) {
+                    break;
+                }
+                if (frame == CLOSE_FRAME) {
+                    break;
+                }
+                try {
+                    sink.send(frame);
+                    sentFrames.increment();
+                    failing = false;
+                } catch (final IOException | RuntimeException e) {
+                    failedFrames.increment();
+                    // logs the first failure only, a sink which is down fails every frame
+                    if (!failing) {
+                        logger.warn("Sending metric frame failed", e);
+                        failing = true;
+                    }
+                }
+            }
+        } finally {
+            try {
+                sink.close();
+            } catch (final IOException e) {
+                closeFailure = e;
+            }
+        }
+    }
+
+    /**
+     * @return number of frames sent
+     */
+    public long getSentFrames() {
+        return sentFrames.sum();
+    }
+
+    /**
+     * @return number of frames dropped because the sink was too slow
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.sum();
+    }
+
+    /**
+     * @return number of frames the sink failed to send
+     */
+    public long getFailedFrames() {
+        return failedFrames.sum();
+    }
+
+    /**
+     * @return number of lines dropped because they are larger than a frame
+     */
+    public long getDroppedLines() {
+        return droppedLines.sum();
+    }
+
+    /**
+     * @return number of frames waiting for the sink
+     */
+    public int getQueuedFrames() {
+        return queue.size();
+    }
+
+    /**
+     * Stops reporting, queued frames are discarded. The sender thread closes the sink once the frame it is sending is done, close waits up to
+     * one second for it. The sender is not interrupted, an interrupt would close a channel in the middle of a send.
+     *
+     * @throws IOException when the sink cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                scheduler = null;
+            }
+        }
+        queue.clear();
+        // a report running concurrently may still fill the queue
+        while (!queue.offer(CLOSE_FRAME)) {
+            queue.poll();
+        }
+        try {
+            sender.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final IOException failure = closeFailure;
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
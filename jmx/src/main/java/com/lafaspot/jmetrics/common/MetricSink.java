@@ -0,0 +1,38 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Destination of the frames of a {@link MetricReporter}. A frame is a batch of StatsD lines, name:value|g, each ending with a line feed.
+ * Sinks are only called from the sender thread of the reporter.
+ */
+public interface MetricSink extends Closeable {
+    /**
+     * Sends a frame.
+     *
+     * @param frame frame, from its position to its limit
+     * @throws IOException when the frame cannot be sent, the reporter counts it as failed and goes on with the next one
+     */
+    void send(@Nonnull ByteBuffer frame) throws IOException;
+}
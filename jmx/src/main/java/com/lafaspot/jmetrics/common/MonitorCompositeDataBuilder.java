@@ -48,7 +48,17 @@ public class MonitorCompositeDataBuilder {
      * @throws OpenDataException Fail on creating type
      */
     public MonitorCompositeDataBuilder(final Class<?> clazz) throws OpenDataException {
-        methodCompositeType = new MetricMethodComposite();
+        this(clazz, new MetricMethodComposite());
+    }
+
+    /**
+     * Constructor sharing the method CompositeType with other builders, all methods of all monitors have the same one.
+     * @param clazz Monitor class
+     * @param methodCompositeType method CompositeType
+     * @throws OpenDataException Fail on creating type
+     */
+    protected MonitorCompositeDataBuilder(final Class<?> clazz, final MetricMethodComposite methodCompositeType) throws OpenDataException {
+        this.methodCompositeType = methodCompositeType;
         Method[] methods = clazz.getMethods();
         final List<Method> annotatedMethods = new ArrayList<>();
 
@@ -91,10 +101,11 @@ public class MonitorCompositeDataBuilder {
      * @throws OpenDataException Creating CompositeData fail
      */
     private CompositeData getCompositeData(final String name, final String type) throws OpenDataException {
-        final Object[] methodMetricsValue = new Object[2];
+        final String[] methodMetricsValue = new String[2];
         methodMetricsValue[0] = name;
         methodMetricsValue[1] = type;
-        return new CompositeDataSupport(methodCompositeType.getCompositeType(), methodCompositeType.getMethodCompositeMetric(),
+        // metrics with the same name and type share the CompositeData
+        return OpenTypeCache.compositeData(methodCompositeType.getCompositeType(), methodCompositeType.getMethodCompositeMetric(),
                 methodMetricsValue);
 
     }
@@ -18,8 +18,45 @@
 
 package com.lafaspot.jmetrics.common;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.lafaspot.common.types.TimeValue;
 
@@ -30,54 +67,212 @@ import com.lafaspot.common.types.TimeValue;
  * @author manish211
  * @param <T> the type parameter
  */
-public class MonitorDirectory<T extends BaseMonitor> {
+public class MonitorDirectory<T extends BaseMonitor> implements MonitorDirectoryMBean {
+
+    /**
+     * Policy used to pick the monitors to evict when the directory is over capacity.
+     */
+    public enum EvictionPolicy {
+        /** Evict the monitors that were looked up least recently. */
+        LRU,
+        /** Evict the monitors that were looked up least often, frequencies are halved after each eviction run. */
+        LFU
+    }
+
+    /**
+     * Directory entry, holds the monitor and its access statistics. Statistics are only maintained when a capacity is set, they are read by
+     * the eviction run while lookups keep updating them.
+     *
+     * @param <T> the type parameter
+     */
+    private static final class Entry<T> {
+        /** The monitor. */
+        private final T monitor;
+        /** Time of the last lookup in milliseconds. */
+        private volatile long lastAccess;
+        /** Number of lookups, halved by each eviction run. */
+        private final LongAdder hits = new LongAdder();
+        /** Statistic the entry is sorted by, captured once per eviction run so the order cannot change while sorting. */
+        private long rank;
+        /** Set once the entry is queued for eviction. */
+        private boolean evicting;
+
+        /**
+         * @param monitor the monitor
+         */
+        private Entry(final T monitor) {
+            this.monitor = monitor;
+            this.lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * @return true if the entry was not yet marked for eviction
+         */
+        private synchronized boolean markEvicting() {
+            if (evicting) {
+                return false;
+            }
+            evicting = true;
+            return true;
+        }
+    }
 
     /** Map of monitor beans. */
-    private volatile ConcurrentHashMap<String, T> directory = new ConcurrentHashMap<String, T>();
-    private final Object lock = new Object();
-    private final Class<T> clazz;
+    private final ConcurrentHashMap<String, Entry<T>> directory = new ConcurrentHashMap<String, Entry<T>>();
+    /** Creates the monitor for a missing key, kept to avoid allocating a lambda per miss. */
+    private final Function<String, Entry<T>> creator = key -> new Entry<T>(createMonitor(key));
+    /** Creates monitor instances. */
+    private final MonitorFactory<T> factory;
     private final TimeValue window;
     private final TimeValue expire;
 
+    /** Get logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    /** Number of entries visited between two checks of the slice deadline. */
+    private static final int SLICE_CHECK_INTERVAL = 64;
+    /** Number of times the values of a monitor are read when it flips during the snapshot. */
+    private static final int SNAPSHOT_ROW_ATTEMPTS = 3;
+    /** Part of the capacity freed by one eviction run, so eviction does not run on every miss. */
+    private static final int EVICTION_HEADROOM_DIVISOR = 10;
+    /** Executor running the expiry sweeper, created on start. */
+    private ScheduledExecutorService sweeperExecutor;
+    /** Scheduled sweeper task. */
+    private ScheduledFuture<?> sweeperTask;
+    /** Maximum time spent by one sweeper run in nanoseconds. */
+    private volatile long sliceNanos;
+    /** Position of the sweep in progress, only used by the sweeper thread. */
+    private Iterator<Map.Entry<String, Entry<T>>> sweepIterator;
+    /** Time spent on the sweep in progress in nanoseconds, only used by the sweeper thread. */
+    private long sweepNanos;
+    /** Number of monitors evicted by the sweeper or because of the capacity. */
+    private final AtomicLong evictedCount = new AtomicLong();
+    /** Duration of the last complete sweep in nanoseconds. */
+    private volatile long lastSweepNanos;
+    /** Maximum number of monitors, 0 for unbounded. */
+    private volatile int maxSize;
+    /** Eviction policy used when the directory is over capacity. */
+    private volatile EvictionPolicy evictionPolicy = EvictionPolicy.LRU;
+    /** Key of the monitor receiving lookups while the directory is full. */
+    private volatile String overflowKey;
+    /** Monitor receiving lookups while the directory is full, created on first overflow. */
+    private volatile T overflowMonitor;
+    /** Number of lookups routed to the overflow monitor. */
+    private final LongAdder overflowCount = new LongAdder();
+    /** Set while an eviction run is pending. */
+    private final AtomicBoolean evictionPending = new AtomicBoolean();
+    /** Runs capacity evictions when no registrar is set, the thread stops when idle. */
+    private final ThreadPoolExecutor evictionExecutor;
+    /** Registrar running registrations and unregistrations, null to run them on the calling thread. */
+    private volatile MBeanRegistrar registrar;
+    /** Class and metric names of the getters which failed in a snapshot, each failure is logged once. */
+    private final Set<String> failedGetters = ConcurrentHashMap.newKeySet();
+    /** This MBean name use for registering in MBeanServer. */
+    private String mBeanName;
+
     /**
      * @param clazz Monitor class
      * @param window Time to flip the monitoring stats.
      * @param expire Time to expire if there is no activity on this monitor.
      */
     public MonitorDirectory(final Class<T> clazz, final TimeValue window, final TimeValue expire) {
-        this.clazz = clazz;
+        this(constructorFactory(clazz), window, expire);
+    }
+
+    /**
+     * @param factory creates the monitors, called once per key
+     * @param window Time to flip the monitoring stats.
+     * @param expire Time to expire if there is no activity on this monitor.
+     */
+    public MonitorDirectory(@Nonnull final MonitorFactory<T> factory, final TimeValue window, final TimeValue expire) {
+        this.factory = factory;
         this.window = window;
         this.expire = expire;
+        this.evictionExecutor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(), runnable -> {
+            final Thread thread = new Thread(runnable, "MonitorDirectory-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictionExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
-     * Look up monitor for given key and create new monitor in case look up fails.
+     * Resolves the (TimeValue, TimeValue) constructor of the monitor class once, monitors are then created without reflective lookups.
+     *
+     * @param clazz Monitor class
+     * @param <T> the monitor type
+     * @return factory calling the constructor
+     */
+    private static <T extends BaseMonitor> MonitorFactory<T> constructorFactory(@Nonnull final Class<T> clazz) {
+        final MethodHandle constructor;
+        try {
+            constructor = MethodHandles.publicLookup().findConstructor(clazz, MethodType.methodType(void.class, TimeValue.class, TimeValue.class))
+                    .asType(MethodType.methodType(BaseMonitor.class, TimeValue.class, TimeValue.class));
+        } catch (final NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalArgumentException("Monitor class needs a public constructor(TimeValue, TimeValue): " + clazz.getName(), e);
+        }
+        return (window, expire) -> newInstance(constructor, clazz, window, expire);
+    }
+
+    /**
+     * @param constructor constructor handle of type (TimeValue, TimeValue)BaseMonitor
+     * @param clazz Monitor class
+     * @param window Time to flip the monitoring stats.
+     * @param expire Time to expire if there is no activity on this monitor.
+     * @param <T> the monitor type
+     * @return new monitor
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private static <T extends BaseMonitor> T newInstance(final MethodHandle constructor, final Class<T> clazz, final TimeValue window,
+            final TimeValue expire) {
+        try {
+            return clazz.cast((BaseMonitor) constructor.invokeExact(window, expire));
+        } catch (final RuntimeException | Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            throw new RuntimeException("Failed to create monitor instance. ", e);
+        }
+    }
+
+    /**
+     * Look up monitor for given key and create new monitor in case look up fails. A monitor is created and registered only once per key,
+     * creation of different keys does not block each other. BaseMonitor.setBeanName must not call back into this directory.
+     *
+     * When a capacity is set and the directory is full, new keys get the shared overflow monitor and an eviction run is started in the
+     * background, the caller never waits for the eviction.
      *
      * @param key MBeanname - which needs to be looked up in directory. created
      * @return T MBean for given key.
      */
     public T getMonitor(final String key) {
-        if (directory.containsKey(key)) {
-            return directory.get(key);
-        } else {
-            T monitor = null;
-            synchronized (lock) {
-                /* return MBean if it is already registered by previous thread. */
-                if (directory.containsKey(key)) {
-                    return directory.get(key);
-                }
-                try {
-                    monitor = this.clazz.getConstructor(TimeValue.class, TimeValue.class).newInstance(this.window, this.expire);
-                    monitor.setBeanName(this, key);
-                } catch (final InstantiationException | IllegalAccessException
-                		| IllegalArgumentException | InvocationTargetException | NoSuchMethodException | SecurityException e) {
-                    throw new RuntimeException("Failed to create monitor instance. ", e);
-                }
-                directory.putIfAbsent(key, monitor);
+        final Entry<T> entry = directory.get(key);
+        if (entry != null) {
+            if (maxSize > 0) {
+                touch(entry);
             }
-            // register bean if not there
-            return monitor;
+            return entry.monitor;
+        }
+        final int capacity = maxSize;
+        if (capacity > 0 && directory.size() >= capacity) {
+            return getOverflowMonitor();
+        }
+        return directory.computeIfAbsent(key, creator).monitor;
+    }
+
+    /**
+     * Creates and registers a monitor, called once per key.
+     *
+     * @param key MBean name
+     * @return new monitor
+     */
+    private T createMonitor(final String key) {
+        final T monitor = factory.create(this.window, this.expire);
+        final MBeanRegistrar deferred = registrar;
+        if (deferred == null) {
+            monitor.setBeanName(this, key);
+        } else {
+            deferred.execute(() -> monitor.setBeanName(this, key));
         }
+        return monitor;
     }
 
     /**
@@ -88,4 +283,403 @@ public class MonitorDirectory<T extends BaseMonitor> {
     public void removeMBean(final String beanName) {
         directory.remove(beanName);
     }
-}
\ No newline at end of file
+
+    /**
+     * Hands registrations and unregistrations to the registrar. Lookups of new keys return the monitor before BaseMonitor.setBeanName has
+     * run, the JMX view catches up once the registrar thread runs the queued tasks in order. Evictions are queued as well and the evicted
+     * monitor stays in the directory until it has been unregistered.
+     *
+     * @param registrar registrar to use, null to register on the calling thread
+     */
+    public void setRegistrar(final MBeanRegistrar registrar) {
+        this.registrar = registrar;
+    }
+
+    /**
+     * @return number of monitors in the directory
+     */
+    @Override
+    public int getSize() {
+        return directory.size();
+    }
+
+    /**
+     * Limits the number of monitors in the directory. Once the directory holds maxSize monitors, lookups of new keys return the monitor
+     * registered as overflowKey and monitors picked by the policy are unregistered in the background. The limit is approximate, concurrent
+     * misses can exceed it slightly.
+     *
+     * @param maxSize maximum number of monitors, 0 to remove the limit
+     * @param policy policy used to pick the monitors to evict
+     * @param overflowKey MBean name of the monitor shared by the keys which do not fit
+     */
+    public synchronized void setCapacity(final int maxSize, @Nonnull final EvictionPolicy policy, @Nonnull final String overflowKey) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Invalid capacity " + maxSize);
+        }
+        if (overflowMonitor != null && !overflowKey.equals(this.overflowKey)) {
+            overflowMonitor.unRegisterMBean();
+            overflowMonitor = null;
+        }
+        this.evictionPolicy = policy;
+        this.overflowKey = overflowKey;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return maximum number of monitors, 0 when unbounded
+     */
+    @Override
+    public int getCapacity() {
+        return maxSize;
+    }
+
+    /**
+     * @return number of lookups which got the overflow monitor because the directory was full
+     */
+    @Override
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    /**
+     * Starts a background sweeper that unregisters monitors which had no write for longer than their expire time. Each run visits entries
+     * for at most sliceTime and continues where the previous run stopped, a full sweep of a large directory can span several runs.
+     *
+     * @param period time between two sweeper runs
+     * @param sliceTime maximum time spent by one sweeper run
+     */
+    public synchronized void startExpirySweeper(@Nonnull final TimeValue period, @Nonnull final TimeValue sliceTime) {
+        if (sweeperTask != null) {
+            throw new IllegalStateException("Expiry sweeper already started");
+        }
+        sliceNanos = TimeUnit.MILLISECONDS.toNanos(sliceTime.toMillis());
+        if (sweeperExecutor == null) {
+            sweeperExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "MonitorDirectory-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        sweeperTask = sweeperExecutor.scheduleWithFixedDelay(this::sweep, period.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the expiry sweeper, monitors are not evicted anymore.
+     */
+    public synchronized void stopExpirySweeper() {
+        if (sweeperTask != null) {
+            sweeperTask.cancel(false);
+            sweeperTask = null;
+        }
+        if (sweeperExecutor != null) {
+            sweeperExecutor.shutdown();
+            sweeperExecutor = null;
+        }
+    }
+
+    /**
+     * @return number of monitors evicted by the expiry sweeper or because the directory was full
+     */
+    @Override
+    public long getEvictedCount() {
+        return evictedCount.get();
+    }
+
+    /**
+     * @return duration of the last complete sweep in milliseconds, the sum of all runs it spanned
+     */
+    @Override
+    public long getLastSweepDuration() {
+        return TimeUnit.NANOSECONDS.toMillis(lastSweepNanos);
+    }
+
+    /**
+     * Reads the numeric {@link com.lafaspot.jmetrics.annotation.Metric} attributes of all monitors, the overflow monitor included, in one walk
+     * of the directory. The getters are method handles resolved once per monitor class, so a scrape costs one walk instead of one JMX
+     * getAttribute call per monitor and metric. Monitors created during the walk may be missing. Each monitor is tagged with the start of its
+     * window, read before and after its values: when a flip happened in between the values are read again, so the values of a row come from
+     * the window they are tagged with unless the monitor flips on every attempt.
+     * <p>
+     * A factory may create monitors of several classes. The metrics are the union of their metrics, matched by name: the metrics of the first
+     * monitor's class come first in their usual order, followed by the metrics only other classes have. A monitor without a metric, or whose
+     * getter fails, has NaN for it.
+     *
+     * @return values by metric then monitor
+     */
+    @Nonnull
+    public MonitorSnapshot snapshot() {
+        final List<String> names = new ArrayList<>(directory.size() + 1);
+        final List<T> monitors = new ArrayList<>(directory.size() + 1);
+        for (final Map.Entry<String, Entry<T>> entry : directory.entrySet()) {
+            names.add(entry.getKey());
+            monitors.add(entry.getValue().monitor);
+        }
+        final T overflow = overflowMonitor;
+        if (overflow != null) {
+            names.add(overflowKey);
+            monitors.add(overflow);
+        }
+        final int count = monitors.size();
+        final Class<?> monitorClass = count > 0 ? monitors.get(0).getClass() : null;
+        // column of each metric of each monitor class, the union of the metric names is built in the same pass
+        final Map<String, Integer> columnByName = new LinkedHashMap<>();
+        final Map<Class<?>, int[]> columnsByClass = new HashMap<>();
+        final int[][] columns = new int[count][];
+        for (int i = 0; i < count; i++) {
+            columns[i] = columnsByClass.computeIfAbsent(monitors.get(i).getClass(), type -> columns(type, columnByName));
+        }
+        final String[] metrics = columnByName.keySet().toArray(new String[0]);
+        final double[][] values = new double[metrics.length][count];
+        for (final double[] row : values) {
+            Arrays.fill(row, Double.NaN);
+        }
+        final long[] windowStarts = new long[count];
+        final Class<?>[] monitorClasses = new Class<?>[count];
+        for (int i = 0; i < count; i++) {
+            final T monitor = monitors.get(i);
+            monitorClasses[i] = monitor.getClass();
+            final MetricAccessors accessors = MetricAccessors.of(monitor.getClass());
+            long windowStart = monitor.getWindowStart();
+            for (int attempt = 1;; attempt++) {
+                for (int m = 0; m < columns[i].length; m++) {
+                    values[columns[i][m]][i] = read(accessors.getGetter(m), monitor, names.get(i), metrics[columns[i][m]]);
+                }
+                final long after = monitor.getWindowStart();
+                if (after == windowStart || attempt == SNAPSHOT_ROW_ATTEMPTS) {
+                    break;
+                }
+                windowStart = after;
+            }
+            windowStarts[i] = windowStart;
+        }
+        return new MonitorSnapshot(System.currentTimeMillis(), monitorClass, names.toArray(new String[count]), monitorClasses, windowStarts,
+                metrics, values);
+    }
+
+    /**
+     * @param type monitor class
+     * @param columnByName columns of the metrics seen so far, the metrics of the class which are missing are added
+     * @return column of each metric of the class, in the order of its accessors
+     */
+    private static int[] columns(final Class<?> type, final Map<String, Integer> columnByName) {
+        final String[] names = MetricAccessors.of(type).getNames();
+        final int[] columns = new int[names.length];
+        for (int m = 0; m < names.length; m++) {
+            Integer column = columnByName.get(names[m]);
+            if (column == null) {
+                column = columnByName.size();
+                columnByName.put(names[m], column);
+            }
+            columns[m] = column;
+        }
+        return columns;
+    }
+
+    /**
+     * @param getter getter of type (BaseMonitor)double
+     * @param monitor monitor
+     * @param name MBean name of the monitor
+     * @param metric metric attribute name
+     * @return metric value, NaN when the getter fails
+     */
+    @SuppressWarnings("checkstyle:illegalcatch")
+    private double read(final MethodHandle getter, final BaseMonitor monitor, final String name, final String metric) {
+        try {
+            return (double) getter.invokeExact(monitor);
+        } catch (final Exception e) {
+            // a broken getter fails on every snapshot, log it once per class and metric
+            if (failedGetters.add(monitor.getClass().getName() + '.' + metric)) {
+                logger.warn("Failed to read metric " + metric + " of monitor " + name + ", further failures are not logged", e);
+            }
+            return Double.NaN;
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            // invokeExact declares Throwable, the getters only throw unchecked exceptions
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public CompositeData takeSnapshot() throws OpenDataException {
+        return snapshot().toCompositeData();
+    }
+
+    /**
+     * Register MBean to mbs.
+     *
+     * @param beanNamePrefix prefix name of mbean
+     * @throws MalformedObjectNameException Name error
+     * @throws NotCompliantMBeanException Not JMX Compliant MBean
+     * @throws MBeanRegistrationException MBean register error
+     * @throws InstanceAlreadyExistsException Instance already exist
+     */
+    public void registerMBean(final String beanNamePrefix)
+            throws InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException, MalformedObjectNameException {
+        final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        final StringBuilder mBeanNameBuilder = new StringBuilder(beanNamePrefix);
+        mBeanNameBuilder.append(":type=").append(MonitorDirectory.class.getSimpleName());
+        mBeanNameBuilder.append(",id=").append(UUID.randomUUID());
+        mbs.registerMBean(this, new ObjectName(mBeanNameBuilder.toString()));
+        mBeanName = mBeanNameBuilder.toString();
+    }
+
+    /**
+     * @throws MalformedObjectNameException Name error
+     * @throws InstanceNotFoundException Instance not exist
+     * @throws MBeanRegistrationException MBean error
+     */
+    public void unRegisterMBean() throws MBeanRegistrationException, InstanceNotFoundException, MalformedObjectNameException {
+        final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        mbs.unregisterMBean(new ObjectName(mBeanName));
+        mBeanName = null;
+    }
+
+    /**
+     * @return MBean name of the directory, null if it is not registered
+     */
+    public String getMBeanName() {
+        return mBeanName;
+    }
+
+    /**
+     * One sweeper run, visits entries until the slice time is used up.
+     */
+    private void sweep() {
+        final long start = System.nanoTime();
+        final long deadline = start + sliceNanos;
+        final long now = System.currentTimeMillis();
+        if (sweepIterator == null) {
+            sweepIterator = directory.entrySet().iterator();
+            sweepNanos = 0;
+        }
+        int visited = 0;
+        while (sweepIterator.hasNext()) {
+            final Map.Entry<String, Entry<T>> entry = sweepIterator.next();
+            final T monitor = entry.getValue().monitor;
+            try {
+                final long expireTime = monitor.getExpireTime();
+                if (expireTime > 0 && now - monitor.getLastWrite() > expireTime) {
+                    evict(entry.getKey(), entry.getValue());
+                }
+            } catch (final RuntimeException e) {
+                logger.error("Failed to expire monitor " + entry.getKey(), e);
+            }
+            if (++visited % SLICE_CHECK_INTERVAL == 0 && System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        sweepNanos += System.nanoTime() - start;
+        if (!sweepIterator.hasNext()) {
+            lastSweepNanos = sweepNanos;
+            sweepIterator = null;
+        }
+    }
+
+    /**
+     * Records a lookup for the eviction policy.
+     *
+     * @param entry entry looked up
+     */
+    private void touch(final Entry<T> entry) {
+        if (evictionPolicy == EvictionPolicy.LFU) {
+            entry.hits.increment();
+        } else {
+            final long now = System.currentTimeMillis();
+            // avoid writing the shared entry on every lookup of a hot key
+            if (entry.lastAccess != now) {
+                entry.lastAccess = now;
+            }
+        }
+    }
+
+    /**
+     * @return the overflow monitor, schedules an eviction run
+     */
+    private T getOverflowMonitor() {
+        overflowCount.increment();
+        if (evictionPending.compareAndSet(false, true)) {
+            final MBeanRegistrar deferred = registrar;
+            if (deferred == null) {
+                evictionExecutor.execute(this::evictOverCapacity);
+            } else {
+                deferred.execute(this::evictOverCapacity);
+            }
+        }
+        T monitor = overflowMonitor;
+        if (monitor == null) {
+            synchronized (this) {
+                monitor = overflowMonitor;
+                if (monitor == null) {
+                    monitor = createMonitor(overflowKey);
+                    overflowMonitor = monitor;
+                }
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Evicts the monitors picked by the policy until the directory is below capacity. Runs on the registrar thread or on the directory's
+     * eviction thread, never on a shared pool since unregistering can block.
+     */
+    private void evictOverCapacity() {
+        try {
+            final int capacity = maxSize;
+            final int excess = directory.size() - (capacity - Math.max(1, capacity / EVICTION_HEADROOM_DIVISOR));
+            if (capacity == 0 || excess <= 0) {
+                return;
+            }
+            final List<Map.Entry<String, Entry<T>>> entries = new ArrayList<>(directory.entrySet());
+            final boolean lfu = evictionPolicy == EvictionPolicy.LFU;
+            for (final Map.Entry<String, Entry<T>> entry : entries) {
+                entry.getValue().rank = lfu ? entry.getValue().hits.sum() : entry.getValue().lastAccess;
+            }
+            entries.sort(Comparator.comparingLong(e -> e.getValue().rank));
+            for (int i = 0; i < entries.size(); i++) {
+                final Map.Entry<String, Entry<T>> entry = entries.get(i);
+                if (i < excess) {
+                    try {
+                        evict(entry.getKey(), entry.getValue());
+                    } catch (final RuntimeException e) {
+                        logger.error("Failed to evict monitor " + entry.getKey(), e);
+                    }
+                } else if (lfu) {
+                    // age the frequencies so monitors which were hot in the past can be evicted
+                    entry.getValue().hits.add(-(entry.getValue().rank >> 1));
+                }
+            }
+        } finally {
+            evictionPending.set(false);
+        }
+    }
+
+    /**
+     * Unregisters and removes a monitor. The monitor is unregistered first, a monitor created for the same key after the removal must not be
+     * unregistered.
+     *
+     * @param key MBean name
+     * @param entry entry to remove
+     */
+    private void evict(final String key, final Entry<T> entry) {
+        if (!entry.markEvicting()) {
+            return;
+        }
+        evictedCount.incrementAndGet();
+        final MBeanRegistrar deferred = registrar;
+        if (deferred == null) {
+            unregister(key, entry);
+        } else {
+            deferred.execute(() -> unregister(key, entry));
+        }
+    }
+
+    /**
+     * @param key MBean name
+     * @param entry entry to remove
+     */
+    private void unregister(final String key, final Entry<T> entry) {
+        entry.monitor.unRegisterMBean();
+        directory.remove(key, entry);
+    }
+}
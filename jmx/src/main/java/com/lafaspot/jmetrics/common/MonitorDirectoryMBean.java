@@ -0,0 +1,60 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
+/**
+ * MonitorDirectory MBean to expose the directory state and a bulk snapshot of all monitor values.
+ *
+ */
+public interface MonitorDirectoryMBean {
+    /**
+     * @return number of monitors in the directory
+     */
+    int getSize();
+
+    /**
+     * @return maximum number of monitors, 0 for unbounded
+     */
+    int getCapacity();
+
+    /**
+     * @return number of lookups which got the overflow monitor because the directory was full
+     */
+    long getOverflowCount();
+
+    /**
+     * @return number of monitors evicted by the expiry sweeper or because the directory was full
+     */
+    long getEvictedCount();
+
+    /**
+     * @return duration of the last complete sweep in milliseconds
+     */
+    long getLastSweepDuration();
+
+    /**
+     * Reads the metrics of all monitors in one call, one getAttribute call per monitor and metric is not needed.
+     *
+     * @return CompositeData of a {@link MonitorSnapshot}
+     * @throws OpenDataException when the CompositeData cannot be created
+     */
+    CompositeData takeSnapshot() throws OpenDataException;
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.lafaspot.jmetrics.common;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Creates monitor instances for a {@link MonitorDirectory}, usually a constructor reference such as {@code ContainerMonitor::new}.
+ *
+ * @param <T> the monitor type
+ */
+@FunctionalInterface
+public interface MonitorFactory<T extends BaseMonitor> {
+    /**
+     * @param window Time to flip the monitoring stats.
+     * @param expire Time to expire if there is no activity on this monitor.
+     * @return new monitor
+     */
+    T create(TimeValue window, TimeValue expire);
+}
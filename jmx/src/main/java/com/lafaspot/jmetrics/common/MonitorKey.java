@@ -0,0 +1,87 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.lafaspot.jmetrics.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Pre-computed handle for a monitor namespace, created by {@link MonitorManager#getMonitorKey(List)}. The namespace is sorted and the bean
+ * name is built once, callers should keep the key and use {@link MonitorManager#getMonitor(MonitorKey)} on the request path.
+ *
+ */
+public final class MonitorKey {
+    /** Sorted namespace including the constant namespace of the manager. */
+    private final List<String> namespace;
+    /** MBean name of the monitor. */
+    private final String beanName;
+    /** Cached hash code. */
+    private final int hash;
+
+    /**
+     * @param namespace sorted namespace
+     * @param beanName MBean name of the monitor
+     */
+    MonitorKey(@Nonnull final String[] namespace, @Nonnull final String beanName) {
+        this.namespace = Collections.unmodifiableList(Arrays.asList(namespace));
+        this.beanName = beanName;
+        this.hash = beanName.hashCode();
+    }
+
+    /**
+     * @return sorted namespace of the monitor
+     */
+    @Nonnull
+    public List<String> getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * @return MBean name of the monitor
+     */
+    @Nonnull
+    public String getBeanName() {
+        return beanName;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MonitorKey)) {
+            return false;
+        }
+        final MonitorKey other = (MonitorKey) obj;
+        return hash == other.hash && beanName.equals(other.beanName);
+    }
+
+    @Override
+    public String toString() {
+        return beanName;
+    }
+}
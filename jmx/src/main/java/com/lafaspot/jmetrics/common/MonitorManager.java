@@ -93,13 +93,51 @@ public class MonitorManager<T extends BaseMonitor> {
      * @return Monitor instance of type T corresponding to namespace defined in passed param.
      */
     public T getMonitor(@Nonnull final List<String> namespace) {
-    	final Set<String> orderedNamespace = new TreeSet<>();
+        return monitorDirectory.getMonitor(makeBeanName(sortNamespace(namespace)));
+    }
+
+    /**
+     * Creates a key for the given namespace. The key should be created once and kept by the caller, looking up a monitor with
+     * {@link #getMonitor(MonitorKey)} does not allocate.
+     *
+     * @param namespace List of names to be used in case monitor object needs to be created.
+     * @return key for the namespace
+     */
+    @Nonnull
+    public MonitorKey getMonitorKey(@Nonnull final List<String> namespace) {
+        final Set<String> orderedNamespace = sortNamespace(namespace);
+        return new MonitorKey(orderedNamespace.toArray(new String[orderedNamespace.size()]), makeBeanName(orderedNamespace));
+    }
+
+    /**
+     * Manages handing out and creating Monitor objects for a key created by {@link #getMonitorKey(List)}.
+     *
+     * @param key monitor key
+     * @return Monitor instance of type T corresponding to the key.
+     */
+    public T getMonitor(@Nonnull final MonitorKey key) {
+        return monitorDirectory.getMonitor(key.getBeanName());
+    }
+
+    /**
+     * @param namespace namespace passed by the caller
+     * @return namespace merged with the constant namespace, in order
+     */
+    private Set<String> sortNamespace(final List<String> namespace) {
+        final Set<String> orderedNamespace = new TreeSet<>();
         orderedNamespace.addAll(namespace);
         orderedNamespace.addAll(constNamespaceSet);
+        return orderedNamespace;
+    }
+
+    /**
+     * @param orderedNamespace ordered namespace
+     * @return MBean name of the monitor
+     */
+    private String makeBeanName(final Set<String> orderedNamespace) {
         final StringBuilder stringBuilder = new StringBuilder();
-        return monitorDirectory.getMonitor(stringBuilder.append(className).append(":namespace=")
-        .append(String.join("|", orderedNamespace)).append(",type=").append(classCanonicalName).append(",id=")
-        .append(id).toString());
+        return stringBuilder.append(className).append(":namespace=").append(String.join("|", orderedNamespace)).append(",type=")
+                .append(classCanonicalName).append(",id=").append(id).toString();
     }
 
     /**
@@ -17,12 +17,25 @@
  */
 package com.lafaspot.jmetrics.common;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.management.InstanceAlreadyExistsException;
@@ -42,6 +55,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.lafaspot.jmetrics.annotation.MetricClass;
+import com.lafaspot.jmetrics.annotation.MetricClassIndex;
 
 import io.github.classgraph.ClassGraph;
 import io.github.classgraph.ClassInfoList;
@@ -54,16 +68,45 @@ import io.github.classgraph.ScanResult;
  *
  */
 public class MonitorScanner implements MonitorScannerMBean {
+    /**
+     * When the scan runs.
+     */
+    public enum ScanMode {
+        /** In the constructor. */
+        EAGER,
+        /** On a background thread started by the constructor. */
+        ASYNC,
+        /** On the first getAllMonitorCompositeData call. */
+        LAZY
+    }
+
+    /** Number of new monitor classes from which their CompositeData is built in parallel. */
+    static final int PARALLEL_THRESHOLD = 64;
+
     /** Get logger. */
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     /** Monitor compositeData send to yamas. */
-    private CompositeData allMonitorCompositeData;
+    private volatile CompositeData allMonitorCompositeData;
     /** Whitelist package to scan by classgraph. */
     private final List<String> whitelistedPackagesList;
     /** Blacklist package to scan by classgraph. */
     private final List<String> blacklistedPackagesList;
     /** This MBean name use for registering in MBeanServer. */
     private String mBeanName;
+    /** Class loader of the thread that created the scanner, the scan always runs with it. */
+    private final ClassLoader scanClassLoader;
+    /** Runs the scan once. */
+    private final FutureTask<Void> scanTask = new FutureTask<Void>(this::scanWithClassLoader, null);
+    /** Duration of the last scan or rescan in milliseconds, -1 until the first scan is done. */
+    private volatile long scanDuration = -1;
+    /** Number of monitor classes found. */
+    private volatile int monitorClassCount;
+    /** Class loaders added after construction, plugin class loaders for instance. */
+    private final List<ClassLoader> addedClassLoaders = new CopyOnWriteArrayList<>();
+    /** Index resources and class path elements already scanned, guarded by this. */
+    private final Set<String> scannedLocations = new HashSet<>();
+    /** Metric class CompositeData by monitor class name, guarded by this. */
+    private final Map<String, CompositeData> metricClassComposites = new TreeMap<>();
 
     /**
      * Construtor. Scan all monitor classes.
@@ -72,50 +115,127 @@ public class MonitorScanner implements MonitorScannerMBean {
      * @param blacklistedPackagesList Blacklist packages to scan. Empty for empty blacklist.
      */
     public MonitorScanner(@Nonnull final List<String> whitelistedPackagesList, @Nonnull final List<String> blacklistedPackagesList) {
+        this(whitelistedPackagesList, blacklistedPackagesList, ScanMode.EAGER);
+    }
+
+    /**
+     * Construtor. The scan runs with the context class loader of the calling thread, whatever thread runs it.
+     *
+     * @param whitelistedPackagesList Whitelist packages to scan. Empty for whitelist all.
+     * @param blacklistedPackagesList Blacklist packages to scan. Empty for empty blacklist.
+     * @param mode when the scan runs
+     */
+    public MonitorScanner(@Nonnull final List<String> whitelistedPackagesList, @Nonnull final List<String> blacklistedPackagesList,
+            @Nonnull final ScanMode mode) {
         allMonitorCompositeData = null;
         this.whitelistedPackagesList = whitelistedPackagesList;
         this.blacklistedPackagesList = blacklistedPackagesList;
-        scan();
+        this.scanClassLoader = Thread.currentThread().getContextClassLoader();
+        switch (mode) {
+        case EAGER:
+            scanTask.run();
+            break;
+        case ASYNC:
+            final Thread scanThread = new Thread(scanTask, "MonitorScanner");
+            scanThread.setDaemon(true);
+            scanThread.start();
+            break;
+        default:
+            // LAZY, scanned on first use
+            break;
+        }
     }
 
     /**
-     * Get All monitors and store metric metricClass to compositeData[].
+     * Runs the scan with the class loader captured by the constructor.
+     *
+     * @return number of monitor classes the scan added
+     */
+    private int scanWithClassLoader() {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader original = thread.getContextClassLoader();
+        final long start = System.nanoTime();
+        thread.setContextClassLoader(scanClassLoader);
+        try {
+            return scan();
+        } finally {
+            thread.setContextClassLoader(original);
+            scanDuration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Get monitors from index resources and class path elements not scanned yet and merge their metric metricClass compositeData into
+     * allMonitorCompositeData. The monitor classes of a jar or class directory come from its compile time {@link MetricClassIndex} when it has
+     * one, from a classpath scan otherwise.
      * 
      * This scan method should not be called(invoked) by jmx, classgraph will find classloader of whoever is loading Mbean. Wrong use: invoke by
      * YamasCollector(running in jedi_jetty_admin_webservice) will cause classgraph find webApp classloader and scan monitor classes in admin.
+     *
+     * @return number of monitor classes added
      */
-    private void scan() {
-        final ClassGraph classGraph = new ClassGraph();
-        classGraph.enableAnnotationInfo().ignoreClassVisibility().blacklistLibOrExtJars()
-                .removeTemporaryFilesAfterScan();
-        if (whitelistedPackagesList.size() > 0) {
-            classGraph.whitelistPackages(whitelistedPackagesList.toArray(new String[0]));
+    private synchronized int scan() {
+        final Set<Class<?>> monitorClasses = loadIndexedClasses();
+        monitorClasses.addAll(scanClasspath());
+        final List<Class<?>> newClasses = new ArrayList<>();
+        for (Class<?> monitorClass : monitorClasses) {
+            if (!metricClassComposites.containsKey(monitorClass.getName())) {
+                newClasses.add(monitorClass);
+            }
         }
-        if (blacklistedPackagesList.size() > 0) {
-            classGraph.blacklistPackages(blacklistedPackagesList.toArray(new String[0]));
+        int added = 0;
+        try {
+            // the fork join pool only adds overhead on a single processor
+            final boolean parallel = newClasses.size() >= PARALLEL_THRESHOLD && Runtime.getRuntime().availableProcessors() > 1;
+            final Map<String, CompositeData> built = buildMetricClassComposites(newClasses, parallel);
+            metricClassComposites.putAll(built);
+            added = built.size();
+        } catch (final OpenDataException ox) {
+            logger.error("Creating CompositeData failed", ox);
         }
-        final ScanResult scanResult = classGraph.scan();
-        final ClassInfoList classInfoList = scanResult.getClassesWithAnnotation(MetricClass.class.getName());
-        final Set<Class<?>> monitorClasses = new HashSet<>();
-        monitorClasses.addAll(classInfoList.loadClasses(true));
-        final List<CompositeData> metricClassCompositesList = new ArrayList<>();
-        for (Class<?> monitorClass : monitorClasses) {
+        monitorClassCount = metricClassComposites.size();
+        if (added > 0 || allMonitorCompositeData == null) {
+            publish();
+        }
+        return added;
+    }
+
+    /**
+     * Builds the metric metricClass compositeData of monitor classes, in parallel on the fork join common pool if asked to. All builders share
+     * the method CompositeType.
+     *
+     * @param monitorClasses monitor classes
+     * @param parallel true to build in parallel
+     * @return metric class CompositeData by monitor class name, without the classes that failed
+     * @throws OpenDataException when the method CompositeType cannot be created
+     */
+    Map<String, CompositeData> buildMetricClassComposites(@Nonnull final Collection<Class<?>> monitorClasses, final boolean parallel)
+            throws OpenDataException {
+        final MetricMethodComposite methodComposite = new MetricMethodComposite();
+        final Map<String, CompositeData> composites = new ConcurrentHashMap<>();
+        final Stream<Class<?>> stream = parallel ? monitorClasses.parallelStream() : monitorClasses.stream();
+        stream.forEach(monitorClass -> {
             try {
-                final CompositeData metricClassComposite = new MonitorCompositeDataBuilder(monitorClass).getMetricClassData();
-                metricClassCompositesList.add(metricClassComposite);
-            } catch (OpenDataException ox) {
+                composites.put(monitorClass.getName(), new MonitorCompositeDataBuilder(monitorClass, methodComposite).getMetricClassData());
+            } catch (final OpenDataException ox) {
                 logger.error("Build monitor metricaAnnotation failed: " + monitorClass.getName());
             }
-        }
+        });
+        return composites;
+    }
 
-        final int monitorCount = metricClassCompositesList.size();
+    /**
+     * Rebuilds allMonitorCompositeData from the metric class compositeData found so far.
+     */
+    private void publish() {
+        final int monitorCount = metricClassComposites.size();
         final String[] monitorKey = new String[monitorCount];
         final String[] monitorKeyDescription = new String[monitorCount];
         @SuppressWarnings("rawtypes")
         final OpenType[] monitorType = new OpenType[monitorCount];
-        final CompositeData[] metricClassComposites = metricClassCompositesList.toArray(new CompositeData[0]);
-        for (int j = 0; j < metricClassComposites.length; j++) {
-            final CompositeData metricClassComposite = metricClassComposites[j];
+        final CompositeData[] metricClassCompositeArray = metricClassComposites.values().toArray(new CompositeData[0]);
+        for (int j = 0; j < metricClassCompositeArray.length; j++) {
+            final CompositeData metricClassComposite = metricClassCompositeArray[j];
             monitorKey[j] = metricClassComposite.getCompositeType().getTypeName();
             monitorKeyDescription[j] = metricClassComposite.getCompositeType().getDescription();
             monitorType[j] = metricClassComposite.getCompositeType();
@@ -124,12 +244,143 @@ public class MonitorScanner implements MonitorScannerMBean {
         try {
             final CompositeType allMonitorCompositeType = new CompositeType("Monitor Metric", "Monitor Metric Info", monitorKey,
                     monitorKeyDescription, monitorType);
-            allMonitorCompositeData = new CompositeDataSupport(allMonitorCompositeType, monitorKey, metricClassComposites);
+            allMonitorCompositeData = new CompositeDataSupport(allMonitorCompositeType, monitorKey, metricClassCompositeArray);
         } catch (final OpenDataException ox) {
             logger.error("Creating CompositeData failed", ox);
         }
     }
 
+    /**
+     * Finds the monitor classes of the class path elements not scanned yet, elements whose {@link MetricClassIndex} was read are skipped.
+     *
+     * @return monitor classes
+     */
+    private Set<Class<?>> scanClasspath() {
+        final ClassGraph classGraph = new ClassGraph();
+        classGraph.enableAnnotationInfo().ignoreClassVisibility().blacklistLibOrExtJars()
+                .removeTemporaryFilesAfterScan();
+        if (whitelistedPackagesList.size() > 0) {
+            classGraph.whitelistPackages(whitelistedPackagesList.toArray(new String[0]));
+        }
+        if (blacklistedPackagesList.size() > 0) {
+            classGraph.blacklistPackages(blacklistedPackagesList.toArray(new String[0]));
+        }
+        for (final ClassLoader loader : addedClassLoaders) {
+            classGraph.addClassLoader(loader);
+        }
+        // elements are only marked scanned once the scan succeeded, the filter may be called from several threads
+        final Set<String> accepted = ConcurrentHashMap.newKeySet();
+        classGraph.filterClasspathElements(path -> {
+            final String location = canonicalPath(new File(path));
+            if (scannedLocations.contains(location)) {
+                return false;
+            }
+            accepted.add(location);
+            return true;
+        });
+        final Set<Class<?>> monitorClasses = new HashSet<>();
+        final ScanResult scanResult = classGraph.scan();
+        try {
+            // interfaces are monitor declarations, the generated monitor classes carry their annotations
+            final ClassInfoList classInfoList = scanResult.getClassesWithAnnotation(MetricClass.class.getName()).getStandardClasses();
+            monitorClasses.addAll(classInfoList.loadClasses(true));
+        } finally {
+            scanResult.close();
+        }
+        scannedLocations.addAll(accepted);
+        return monitorClasses;
+    }
+
+    /**
+     * Loads the monitor classes listed by the compile time {@link MetricClassIndex} resources not read yet, skipping classes outside the
+     * package lists. The jars and class directories of the indexes read are marked scanned, the classpath scan skips them.
+     *
+     * @return monitor classes
+     */
+    private Set<Class<?>> loadIndexedClasses() {
+        final List<ClassLoader> loaders = new ArrayList<>();
+        loaders.add(Thread.currentThread().getContextClassLoader() != null ? Thread.currentThread().getContextClassLoader()
+                : this.getClass().getClassLoader());
+        loaders.addAll(addedClassLoaders);
+        final Set<Class<?>> monitorClasses = new HashSet<>();
+        for (final ClassLoader loader : loaders) {
+            final Enumeration<URL> indexes;
+            try {
+                indexes = loader.getResources(MetricClassIndex.LOCATION);
+            } catch (final IOException e) {
+                logger.error("Reading " + MetricClassIndex.LOCATION + " failed, scanning the class path", e);
+                continue;
+            }
+            while (indexes.hasMoreElements()) {
+                final URL index = indexes.nextElement();
+                // class loaders share the indexes of their parents
+                if (scannedLocations.contains(index.toString())) {
+                    continue;
+                }
+                final Set<String> classNames;
+                try {
+                    classNames = MetricClassIndex.read(index);
+                } catch (final IOException e) {
+                    logger.error("Reading " + index + " failed", e);
+                    continue;
+                }
+                scannedLocations.add(index.toString());
+                final File root = MetricClassIndex.root(index);
+                if (root != null) {
+                    scannedLocations.add(canonicalPath(root));
+                }
+                for (final String className : classNames) {
+                    if (!MetricClassIndex.accept(className, whitelistedPackagesList, blacklistedPackagesList)) {
+                        continue;
+                    }
+                    try {
+                        final Class<?> monitorClass = Class.forName(className, false, loader);
+                        if (!monitorClass.isInterface() && monitorClass.isAnnotationPresent(MetricClass.class)) {
+                            monitorClasses.add(monitorClass);
+                        }
+                    } catch (final ClassNotFoundException | LinkageError e) {
+                        logger.warn("Indexed monitor class not loadable: " + className);
+                    }
+                }
+            }
+        }
+        return monitorClasses;
+    }
+
+    /**
+     * @param file jar or class directory
+     * @return canonical path, the absolute path if it cannot be resolved
+     */
+    private static String canonicalPath(final File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (final IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Adds a class loader to scan, its monitor classes show up after the next {@link #rescan()}.
+     *
+     * @param loader class loader, a plugin class loader for instance
+     */
+    public void addClassLoader(@Nonnull final ClassLoader loader) {
+        addedClassLoaders.add(loader);
+    }
+
+    /**
+     * Scans the index resources and class path elements that showed up since the last scan and merges their monitors into
+     * allMonitorCompositeData. Elements already scanned are skipped, so this is cheap enough to call periodically.
+     *
+     * @return number of monitor classes added
+     */
+    @Override
+    public int rescan() {
+        // the first scan has to be done before anything is merged
+        getAllMonitorCompositeData();
+        return scanWithClassLoader();
+    }
+
     /**
      * Get CompositeData for existing monitor.
      *
@@ -137,9 +388,28 @@ public class MonitorScanner implements MonitorScannerMBean {
      */
     @Override
     public CompositeData getAllMonitorCompositeData() {
+        // runs a lazy scan, waits for an async one
+        scanTask.run();
+        try {
+            scanTask.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            logger.error("Monitor scan failed", e.getCause());
+        }
         return allMonitorCompositeData;
     }
 
+    @Override
+    public long getScanDuration() {
+        return scanDuration;
+    }
+
+    @Override
+    public int getMonitorClassCount() {
+        return monitorClassCount;
+    }
+
     /**
      * Register MBean to mbs.
      *
@@ -30,4 +30,21 @@ public interface MonitorScannerMBean {
      * @return the CompossiteData of monitor metric.
      */
     CompositeData getAllMonitorCompositeData();
+
+    /**
+     * @return duration of the last scan or rescan in milliseconds, -1 while the first scan has not completed.
+     */
+    long getScanDuration();
+
+    /**
+     * @return number of monitor classes found by the scan.
+     */
+    int getMonitorClassCount();
+
+    /**
+     * Scans only what was added to the class path since the last scan and merges it into the CompositeData of monitor metric.
+     *
+     * @return number of monitor classes added.
+     */
+    int rescan();
 }
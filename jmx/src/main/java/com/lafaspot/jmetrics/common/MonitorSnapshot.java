@@ -0,0 +1,194 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+/**
+ * Values of the numeric metrics of all monitors of a {@link MonitorDirectory}, read in one walk. The result is columnar, one double array per
+ * metric with one value per monitor. Integer metrics are exact up to 2^53. Metrics a monitor does not have are NaN.
+ */
+public final class MonitorSnapshot {
+    /** CompositeType name. */
+    private static final String TYPE_NAME = "MonitorSnapshot";
+    /** Item names of the CompositeData. */
+    private static final String[] ITEM_NAMES = {"time", "monitors", "windowStarts", "metrics", "values"};
+    /** Item descriptions of the CompositeData. */
+    private static final String[] ITEM_DESCRIPTIONS = {"snapshot time in milliseconds", "monitor MBean names",
+        "start time of the window of each monitor in milliseconds", "metric attribute names", "values by metric then monitor"};
+
+    /** Time of the snapshot in milliseconds. */
+    private final long time;
+    /** Class of the first monitor, its metrics come first, null without monitors. */
+    private final Class<?> monitorClass;
+    /** Class of each monitor. */
+    private final Class<?>[] monitorClasses;
+    /** MBean names of the monitors. */
+    private final String[] monitors;
+    /** Start time of the window of each monitor in milliseconds. */
+    private final long[] windowStarts;
+    /** Metric attribute names. */
+    private final String[] metrics;
+    /** Values, values[metric][monitor]. */
+    private final double[][] values;
+
+    /**
+     * @param time time of the snapshot in milliseconds
+     * @param monitorClass class of the first monitor, its metrics come first, null without monitors
+     * @param monitors MBean names of the monitors, not copied
+     * @param monitorClasses class of each monitor, not copied
+     * @param windowStarts start time of the window of each monitor, not copied
+     * @param metrics metric attribute names, not copied
+     * @param values values by metric then monitor, not copied
+     */
+    MonitorSnapshot(final long time, @Nullable final Class<?> monitorClass, @Nonnull final String[] monitors,
+            @Nonnull final Class<?>[] monitorClasses, @Nonnull final long[] windowStarts, @Nonnull final String[] metrics,
+            @Nonnull final double[][] values) {
+        this.time = time;
+        this.monitorClass = monitorClass;
+        this.monitors = monitors;
+        this.monitorClasses = monitorClasses;
+        this.windowStarts = windowStarts;
+        this.metrics = metrics;
+        this.values = values;
+    }
+
+    /**
+     * @return time of the snapshot in milliseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return class of the first monitor, its metrics come first, null without monitors
+     */
+    @Nullable
+    public Class<?> getMonitorClass() {
+        return monitorClass;
+    }
+
+    /**
+     * @return number of monitors
+     */
+    public int getMonitorCount() {
+        return monitors.length;
+    }
+
+    /**
+     * @param monitor monitor index
+     * @return MBean name of the monitor
+     */
+    @Nonnull
+    public String getMonitorName(final int monitor) {
+        return monitors[monitor];
+    }
+
+    /**
+     * @param monitor monitor index
+     * @return class of the monitor
+     */
+    @Nonnull
+    public Class<?> getMonitorClass(final int monitor) {
+        return monitorClasses[monitor];
+    }
+
+    /**
+     * @param monitor monitor index
+     * @return start time in milliseconds of the window the values of the monitor were read from
+     */
+    public long getWindowStart(final int monitor) {
+        return windowStarts[monitor];
+    }
+
+    /**
+     * @return metric attribute names
+     */
+    @Nonnull
+    public String[] getMetricNames() {
+        return metrics.clone();
+    }
+
+    /**
+     * @return number of metrics
+     */
+    public int getMetricCount() {
+        return metrics.length;
+    }
+
+    /**
+     * @param metric metric index
+     * @return metric attribute name
+     */
+    @Nonnull
+    public String getMetricName(final int metric) {
+        return metrics[metric];
+    }
+
+    /**
+     * @param metric metric attribute name
+     * @return index of the metric, negative if no monitor has it
+     */
+    public int indexOfMetric(@Nonnull final String metric) {
+        return Arrays.asList(metrics).indexOf(metric);
+    }
+
+    /**
+     * @param metric metric index
+     * @param monitor monitor index
+     * @return value, NaN if the monitor does not have the metric
+     */
+    public double getValue(final int metric, final int monitor) {
+        return values[metric][monitor];
+    }
+
+    /**
+     * @param metric metric index
+     * @return values of the metric for all monitors
+     */
+    @Nonnull
+    public double[] getColumn(final int metric) {
+        return values[metric].clone();
+    }
+
+    /**
+     * Converts the snapshot for JMX, the arrays are shared with the snapshot.
+     *
+     * @return CompositeData with the time, monitor names, window starts, metric names and values
+     * @throws OpenDataException when the CompositeData cannot be created
+     */
+    @Nonnull
+    public CompositeData toCompositeData() throws OpenDataException {
+        @SuppressWarnings("rawtypes")
+        final OpenType[] itemTypes = {SimpleType.LONG, new ArrayType<String[]>(1, SimpleType.STRING), ArrayType.getPrimitiveArrayType(long[].class),
+            new ArrayType<String[]>(1, SimpleType.STRING), ArrayType.getPrimitiveArrayType(double[][].class)};
+        final CompositeType type = OpenTypeCache.compositeType(TYPE_NAME, "Metric values of all monitors", ITEM_NAMES, ITEM_DESCRIPTIONS,
+                itemTypes);
+        return new CompositeDataSupport(type, ITEM_NAMES, new Object[] {time, monitors, windowStarts, metrics, values});
+    }
+}
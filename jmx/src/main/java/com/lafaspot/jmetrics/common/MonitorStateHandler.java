@@ -17,13 +17,16 @@
  */
 package com.lafaspot.jmetrics.common;
 
-import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.lafaspot.common.types.TimeValue;
 import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
 
@@ -31,6 +34,14 @@ import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
 /**
 * Handler to be used to manager monitor state changes for monitor that use 2 instances of counters. One instance (current) is the write copy, this
 * copy is becomes the stable copy once the timwWindow expires, the update method should be called frequently to allow for the flip to happen.
+* Handlers scheduled on a {@link FlipScheduler} are flipped at wall clock aligned window boundaries instead.
+*
+* In aligned mode window boundaries are multiples of the window since the epoch, floor(now / window) * window, so monitors of all JVMs with
+* the same window share the same window edges and their windows can be summed by start time. A window flipped late by update still collects
+* the writes until the flip.
+*
+* The handler can also keep a ring of N states, the current state and the last N - 1 windows. Slots are reused on every flip, history and merge
+* read older windows.
 *
 * @author manish211
 *
@@ -56,36 +67,143 @@ public class MonitorStateHandler<T extends State<T>> {
    private final long startTime = System.currentTimeMillis();
 
    /** time when this state was last flipped. */
-   private AtomicLong lastFlip = new AtomicLong(System.currentTimeMillis());
+   private volatile long lastFlip;
+
+   /** Clock used for the window. */
+   private final CoarseClock clock;
 
    /** Time windows when read state is replace with current state. */
    private final TimeValue window;
 
+   /** Time window in milliseconds. */
+   private final long windowMillis;
+
+   /** True when windows start at multiples of the window since the epoch. */
+   private final boolean aligned;
+
    /** contains list of state. */
    private final T[] state;
 
-   /** stable and current index trigger. */
-   private final AtomicBoolean index = new AtomicBoolean();
+   /** Start time of the window held by each state. */
+   private final long[] windowStart;
+
+   /**
+    * Epoch word, bit 0 is set while a flip is in progress and the remaining bits count the flips. The current state is the flip count modulo the
+    * number of states.
+    */
+   private final AtomicLong epoch = new AtomicLong();
+
+   /** Number of writers that entered each state. */
+   private final LongAdder[] entered;
+
+   /** Number of writers that left each state. */
+   private final LongAdder[] exited;
+
+   /** Flipping bit of the epoch word. */
+   private static final long FLIPPING = 1L;
+
+   /** Version increment of the epoch word. */
+   private static final long VERSION = 2L;
+
+   /** Time before which update does not retry a flip abandoned because writers did not drain. */
+   private volatile long flipRetry;
+
+   /** Handlers the thread has begun a write on and not ended it. */
+   private static final ThreadLocal<OpenWrites> OPEN_WRITES = ThreadLocal.withInitial(OpenWrites::new);
+
+   /** Maximum time a flip waits for the writers of the old current state. */
+   private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+   /** Get logger. */
+   private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
    /** state window expire time in minutes. */
    private static final int STATE_WINDOW_TIME_MINS = 5;
 
+   /**
+    * Creates a handler keeping a ring of states, the first state is the current one. All states must be allocated up front, they are reused.
+    *
+    * @param states states of the ring, at least 2
+    * @param timeWindow expiration window
+    * @param clock clock used for the window
+    */
+   public MonitorStateHandler(final T[] states, final TimeValue timeWindow, final CoarseClock clock) {
+       this(states, timeWindow, clock, false);
+   }
+
+   /**
+    * Creates a handler keeping a ring of states, the first state is the current one. All states must be allocated up front, they are reused.
+    *
+    * @param states states of the ring, at least 2
+    * @param timeWindow expiration window
+    * @param clock clock used for the window
+    * @param aligned true to start the windows at multiples of the window since the epoch
+    */
+   public MonitorStateHandler(final T[] states, final TimeValue timeWindow, final CoarseClock clock, final boolean aligned) {
+       if ((states == null) || (timeWindow == null) || (clock == null)) {
+           throw new NullPointerException("Wrong arguments for " + this.getClass().getName());
+       }
+       if (states.length < 2) {
+           throw new IllegalArgumentException("At least 2 states required, got " + states.length);
+       }
+       for (final T s : states) {
+           if (s == null) {
+               throw new NullPointerException("Wrong arguments for " + this.getClass().getName());
+           }
+       }
+       this.clock = clock;
+       this.window = timeWindow;
+       this.windowMillis = timeWindow.toMillis();
+       this.aligned = aligned;
+       if (aligned && windowMillis <= 0) {
+           throw new IllegalArgumentException("Invalid aligned window " + timeWindow);
+       }
+       this.lastFlip = flipTime(clock.currentTimeMillis());
+       this.state = states.clone();
+       this.windowStart = new long[states.length];
+       this.windowStart[0] = lastFlip;
+       this.entered = new LongAdder[states.length];
+       this.exited = new LongAdder[states.length];
+       for (int i = 0; i < states.length; i++) {
+           entered[i] = new LongAdder();
+           exited[i] = new LongAdder();
+       }
+   }
+
    /**
     * The Constructor.
     *
     * @param current current state
     * @param stable stable state
     * @param timeWindow expiration window
+    * @param clock clock used for the window
+    */
+   public MonitorStateHandler(final T current, final T stable, final TimeValue timeWindow, final CoarseClock clock) {
+       this(current, stable, timeWindow, clock, false);
+   }
+
+   /**
+    * Creates a handler with a current and a stable state.
+    *
+    * @param current current state
+    * @param stable stable state
+    * @param timeWindow expiration window
+    * @param clock clock used for the window
+    * @param aligned true to start the windows at multiples of the window since the epoch
+    */
+   public MonitorStateHandler(final T current, final T stable, final TimeValue timeWindow, final CoarseClock clock, final boolean aligned) {
+       this(pair(current, stable), timeWindow, clock, aligned);
+   }
+
+   /**
+    * Creates a MonitorStateHandler using the shared {@link CoarseClock}.
+    *
+    * @param current current state
+    * @param stable stable state
+    * @param timeWindow expiration window
     */
-   @SuppressWarnings("unchecked")
    public MonitorStateHandler(final T current, final T stable, final TimeValue timeWindow) {
-       if ((current == null) || (stable == null) || (timeWindow == null)) {
-           throw new NullPointerException("Wrong arguments for " + this.getClass().getName());
-       }
-       this.window = timeWindow;
-       state = (T[]) Array.newInstance(current.getClass(), 2);
-       state[0] = current;
-       state[1] = stable;
+       this(current, stable, timeWindow, CoarseClock.getDefault());
    }
 
    /**
@@ -99,17 +217,105 @@ public class MonitorStateHandler<T extends State<T>> {
    }
 
    /**
-    * @return The current version of the monitor counters, should only be used for updates not reads.
+    * @return The current version of the monitor counters, should only be used for updates not reads. Updates made through this reference can
+    *         race a flip and be lost, use beginWrite and endWrite instead.
     */
    public T current() {
-       return state[index.get() ? 0 : 1];
+       return state[slot(awaitFlip(), 0)];
    }
 
    /**
     * @return The stable version of the monitor counters.
     */
    public T stable() {
-       return state[index.get() ? 1 : 0];
+       return state[slot(awaitFlip(), 1)];
+   }
+
+   /**
+    * @return number of states in the ring
+    */
+   public int size() {
+       return state.length;
+   }
+
+   /**
+    * Returns the state of an earlier window, 0 is the current state and 1 the stable state. Windows older than the handler are empty states.
+    *
+    * @param k number of windows back, less than size
+    * @return state of the window
+    */
+   public T history(final int k) {
+       checkHistory(k);
+       return state[slot(awaitFlip(), k)];
+   }
+
+   /**
+    * @param k number of windows back, less than size
+    * @return start time of the window in milliseconds, 0 if the handler is younger than that window
+    */
+   public long getWindowStart(final int k) {
+       checkHistory(k);
+       return windowStart[slot(awaitFlip(), k)];
+   }
+
+   /**
+    * Merges the last k completed windows, stable first, into the target. A flip during the merge can shift the windows by one.
+    *
+    * @param k number of completed windows, from 1 to size - 1
+    * @param target the merge target
+    * @param <M> type of the merge target
+    * @return the target
+    */
+   public <M extends Mergeable<? super T>> M merge(final int k, @Nonnull final M target) {
+       if (k < 1 || k >= state.length) {
+           throw new IllegalArgumentException("Invalid window count " + k + ", size " + state.length);
+       }
+       final long e = awaitFlip();
+       for (int i = 1; i <= k; i++) {
+           target.merge(state[slot(e, i)]);
+       }
+       return target;
+   }
+
+   /**
+    * Starts an update of the current state. Every call must be paired with endWrite, called in a finally block right after beginWrite returns. A
+    * flip waits for writers that started on the old current state before it resets the states, so no update is lost. A writer that does not end
+    * its write within a second makes the flip give up with an error log, the states are not flipped before the next window. A thread cannot wait
+    * for its own write, in between update of this handler does not flip and flip throws an IllegalStateException. Writes on other handlers do not
+    * matter.
+    *
+    * @return The current version of the monitor counters
+    */
+   public T beginWrite() {
+       while (true) {
+           final long e = awaitFlip();
+           final int slot = slot(e, 0);
+           entered[slot].increment();
+           if (epoch.get() == e) {
+               OPEN_WRITES.get().add(this);
+               return state[slot];
+           }
+           // a flip started, back out and retry on the new current state
+           exited[slot].increment();
+       }
+   }
+
+   /**
+    * Ends an update started with beginWrite.
+    *
+    * @param current the state returned by beginWrite
+    * @throws IllegalArgumentException when the state is not one of the states of this handler
+    */
+   public void endWrite(@Nonnull final T current) {
+       int slot = 0;
+       while (slot < state.length && state[slot] != current) {
+           slot++;
+       }
+       if (slot == state.length) {
+           throw new IllegalArgumentException("State not owned by this handler: " + current);
+       }
+       exited[slot].increment();
+       OPEN_WRITES.get().remove(this);
    }
 
    /**
@@ -123,7 +329,7 @@ public class MonitorStateHandler<T extends State<T>> {
     * @return Time of the last flip
     */
    public long getLastUpdate() {
-       return lastFlip.get();
+       return lastFlip;
    }
 
    /**
@@ -134,39 +340,236 @@ public class MonitorStateHandler<T extends State<T>> {
    }
 
    /**
-    * Uses getWindow to flip current with stable, should be called frequently on all read operations.
+    * @return true when windows start at multiples of the window since the epoch
+    */
+   public boolean isAligned() {
+       return aligned;
+   }
+
+   /**
+    * Uses getWindow to flip current with stable, should be called frequently on all read operations. Does not flip when the thread is between
+    * beginWrite and endWrite on this handler, the flip is left to the next caller.
     */
    public void update() {
-       long currTime = System.currentTimeMillis();
-       long lastFlipTime = lastFlip.get();
-       long elapsedTime = currTime - lastFlipTime;
-       if (elapsedTime < window.toMillis()) {
-           // return without using lock
+       final long currentTime = clock.currentTimeMillis();
+       if (currentTime - lastFlip < windowMillis || currentTime < flipRetry || OPEN_WRITES.get().contains(this)) {
            return;
-       } else if (elapsedTime >= window.toMillis()) {
-           // need lock to flip state
-           final long currentTime = System.currentTimeMillis();
-           synchronized (this) {
-               if (lastFlip.compareAndSet(lastFlipTime, currentTime)) {
-                   index.getAndSet(!index.get());
-                   current().reset(stable());
-               }
-           }
        }
+       final long e = epoch.get();
+       if ((e & FLIPPING) != 0 || !epoch.compareAndSet(e, e | FLIPPING)) {
+           // another thread is flipping
+           return;
+       }
+       if (currentTime - lastFlip < windowMillis) {
+           // flipped between the window check and the claim
+           epoch.set(e);
+           return;
+       }
+       flip(e, flipTime(currentTime));
+   }
+
+   /**
+    * @return true when the window of the current state has elapsed, update would flip
+    */
+   protected boolean windowElapsed() {
+       return clock.currentTimeMillis() - lastFlip >= windowMillis;
    }
 
    /**
     * forces the flip between current and stable state. This method should only be used for debugging or testing. update should be used instead of
-    * this.
+    * this. In aligned mode the new window starts at the boundary of the window holding the current time.
+    *
+    * @throws IllegalStateException when the thread is between beginWrite and endWrite on this handler, the flip would wait for its own write
     */
    public void flip() {
-       long currTime = System.currentTimeMillis();
-       synchronized (this) {
-           long lastFlipTime = lastFlip.get();
-           if (lastFlip.compareAndSet(lastFlipTime, currTime)) {
-               index.getAndSet(!index.get());
-               current().reset(stable());
+       if (OPEN_WRITES.get().contains(this)) {
+           throw new IllegalStateException("Flip inside a write would wait for the write");
+       }
+       while (true) {
+           final long e = awaitFlip();
+           if (epoch.compareAndSet(e, e | FLIPPING)) {
+               flip(e, flipTime(clock.currentTimeMillis()));
+               return;
+           }
+       }
+   }
+
+   /**
+    * Flips the states at a window boundary, the boundary is the flip time. Used by {@link FlipScheduler}.
+    *
+    * @param boundary window boundary in milliseconds
+    * @return false if the handler already flipped at or after the boundary, or the flip was abandoned
+    */
+   boolean flipAt(final long boundary) {
+       while (true) {
+           final long e = awaitFlip();
+           if (lastFlip >= boundary) {
+               return false;
+           }
+           if (epoch.compareAndSet(e, e | FLIPPING)) {
+               if (lastFlip >= boundary) {
+                   epoch.set(e);
+                   return false;
+               }
+               return flip(e, boundary);
+           }
+       }
+   }
+
+   /**
+    * Flips the states, the caller must have set the flipping bit on the epoch word. New writers wait until the flip is done, writers on the old
+    * current state are drained before it becomes stable. When they do not drain within {@link #DRAIN_TIMEOUT_NANOS} the flip is abandoned and
+    * update does not retry it for a window.
+    *
+    * @param e epoch word before the flipping bit was set
+    * @param currentTime time of the flip
+    * @return true if the states were flipped
+    */
+   private boolean flip(final long e, final long currentTime) {
+       // the epoch word is always published, a failed reset or drain leaves the states unflipped
+       long published = e;
+       try {
+           final int old = slot(e, 0);
+           if (!drain(old)) {
+               flipRetry = clock.currentTimeMillis() + windowMillis;
+               logger.error("Flip abandoned, writers did not call endWrite within " + TimeUnit.NANOSECONDS.toMillis(DRAIN_TIMEOUT_NANOS) + " ms: "
+                       + (entered[old].sum() - exited[old].sum()));
+               return false;
+           }
+           final int next = slot(e + VERSION, 0);
+           state[next].reset(state[old]);
+           windowStart[next] = currentTime;
+           lastFlip = currentTime;
+           published = e + VERSION;
+           flipped(state[old], windowStart[old], currentTime);
+           return true;
+       } finally {
+           epoch.set(published);
+       }
+   }
+
+   /**
+    * @param slot index of the old current state
+    * @return true once no writer is inside the state, false if writers remain after the drain timeout
+    */
+   private boolean drain(final int slot) {
+       final long start = System.nanoTime();
+       // exits are read before entries, equal sums mean no writer was inside at the time exits were read
+       while (exited[slot].sum() != entered[slot].sum()) {
+           if (System.nanoTime() - start > DRAIN_TIMEOUT_NANOS) {
+               return false;
+           }
+           Thread.yield();
+       }
+       return true;
+   }
+
+   /**
+    * Called by the flipping thread once the writers of the completed window are drained, before the flip becomes visible. Readers and writers
+    * wait until it returns, implementations should be short. Does nothing by default.
+    *
+    * @param completed state of the completed window, the new stable state
+    * @param start start time of the completed window in milliseconds
+    * @param end end time of the completed window in milliseconds
+    */
+   protected void flipped(@Nonnull final T completed, final long start, final long end) {
+   }
+
+   /**
+    * @param currentTime current time in milliseconds
+    * @return start of the window holding the time in aligned mode, the time otherwise
+    */
+   private long flipTime(final long currentTime) {
+       return aligned ? Math.floorDiv(currentTime, windowMillis) * windowMillis : currentTime;
+   }
+
+   /**
+    * @param e epoch word
+    * @param k number of windows back
+    * @return index of the state k windows before the current one
+    */
+   private int slot(final long e, final int k) {
+       return (int) (((e >>> 1) + state.length - k) % state.length);
+   }
+
+   /**
+    * @param k number of windows back
+    */
+   private void checkHistory(final int k) {
+       if (k < 0 || k >= state.length) {
+           throw new IllegalArgumentException("Invalid window " + k + ", size " + state.length);
+       }
+   }
+
+   /**
+    * @param current current state
+    * @param stable stable state
+    * @param <T> type of state
+    * @return array of the two states, a State array since the states can be of different subclasses of T
+    */
+   @SuppressWarnings("unchecked")
+   private static <T extends State<T>> T[] pair(final T current, final T stable) {
+       if ((current == null) || (stable == null)) {
+           throw new NullPointerException("Wrong arguments for " + MonitorStateHandler.class.getName());
+       }
+       return (T[]) new State<?>[] {current, stable};
+   }
+
+   /**
+    * @return epoch word once no flip is in progress
+    */
+   private long awaitFlip() {
+       long e = epoch.get();
+       while ((e & FLIPPING) != 0) {
+           Thread.yield();
+           e = epoch.get();
+       }
+       return e;
+   }
+
+   /**
+    * Handlers a thread is writing to, usually none or one.
+    */
+   private static final class OpenWrites {
+       /** Handlers, one element per open write. */
+       private Object[] handlers = new Object[2];
+       /** Number of open writes. */
+       private int size;
+
+       /**
+        * @param handler handler the write begun on
+        */
+       private void add(final Object handler) {
+           if (size == handlers.length) {
+               handlers = Arrays.copyOf(handlers, size * 2);
+           }
+           handlers[size++] = handler;
+       }
+
+       /**
+        * @param handler handler the write ended on
+        */
+       private void remove(final Object handler) {
+           for (int i = size - 1; i >= 0; i--) {
+               if (handlers[i] == handler) {
+                   System.arraycopy(handlers, i + 1, handlers, i, size - i - 1);
+                   handlers[--size] = null;
+                   return;
+               }
+           }
+       }
+
+       /**
+        * @param handler handler
+        * @return true if the thread has an open write on the handler
+        */
+       private boolean contains(final Object handler) {
+           for (int i = 0; i < size; i++) {
+               if (handlers[i] == handler) {
+                   return true;
+               }
            }
+           return false;
        }
    }
 
@@ -0,0 +1,524 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+
+import com.lafaspot.jmetrics.annotation.Metric;
+import com.lafaspot.jmetrics.annotation.MetricClass;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Pull exporter rendering the metrics of monitor directories in the OpenMetrics text format, served by an embedded HTTP server next to JMX.
+ * Each numeric {@link Metric} getter is a gauge family named after the {@link MetricClass} name and the attribute in snake case, with the
+ * metric unit as suffix. Each monitor is one sample labelled with its MBean name. Values are those of the last window, like the JMX attributes.
+ * The family of a sample comes from the class of its monitor, so a directory holding monitors of several classes renders each under its own
+ * families. Families of the same name are rendered once, with the samples of all directories and classes.
+ *
+ * A scrape takes a {@link MonitorSnapshot} of every directory and renders it into a byte buffer, renders run one at a time. The buffer is
+ * written outside the render lock, so a slow client does not hold up other scrapes or close, and returned to a small pool afterwards: sequential
+ * scrapes reuse the same buffer and concurrent scrapes each get their own.
+ */
+public class OpenMetricsExporter implements Closeable {
+    /** Content type of the exposition. */
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+    /** Path of the endpoint. */
+    public static final String PATH = "/metrics";
+    /** Families of each monitor class by attribute name. */
+    private static final ClassValue<Map<String, Family>> FAMILIES = new ClassValue<Map<String, Family>>() {
+        @Override
+        protected Map<String, Family> computeValue(final Class<?> type) {
+            return families(type);
+        }
+    };
+    /** End of the exposition. */
+    private static final byte[] EOF = ascii("# EOF\n");
+    /** End of the label set. */
+    private static final byte[] LABELS_END = ascii("\"} ");
+    /** Initial buffer size. */
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    /** Maximum number of free buffers kept for later scrapes. */
+    private static final int MAX_FREE_BUFFERS = 2;
+    /** Largest magnitude of a double rendered as an integer. */
+    private static final double MAX_INTEGER = 1e15;
+
+    /** Directories to export. */
+    private final List<MonitorDirectory<?>> directories = new CopyOnWriteArrayList<>();
+    /** Serializes the renders, guards the free buffers. */
+    private final Object renderLock = new Object();
+    /** Exposition buffers not in use by a scrape, guarded by renderLock. */
+    private final Deque<OutputBuffer> freeBuffers = new ArrayDeque<>();
+    /** HTTP server, null when not started, guarded by this. */
+    private HttpServer server;
+
+    /**
+     * Metric family of a monitor attribute.
+     */
+    private static final class Family {
+        /** Family name. */
+        private final String name;
+        /** HELP, TYPE and UNIT lines. */
+        private final byte[] header;
+        /** Family name and opening of the label set. */
+        private final byte[] samplePrefix;
+
+        /**
+         * @param name family name
+         * @param header HELP, TYPE and UNIT lines
+         * @param samplePrefix family name and opening of the label set
+         */
+        private Family(final String name, final byte[] header, final byte[] samplePrefix) {
+            this.name = name;
+            this.header = header;
+            this.samplePrefix = samplePrefix;
+        }
+    }
+
+    /**
+     * Snapshot columns holding the samples of a family, collected before rendering since the samples of a family must not be interleaved with
+     * other families.
+     */
+    private static final class Samples {
+        /** Family header rendered, the first family of that name. */
+        private final Family family;
+        /** Snapshot index and column index pairs. */
+        private int[] columns = new int[8];
+        /** Number of ints used in columns. */
+        private int size;
+
+        /**
+         * @param family family
+         */
+        private Samples(final Family family) {
+            this.family = family;
+        }
+
+        /**
+         * @param snapshot snapshot index
+         * @param column column index
+         */
+        private void add(final int snapshot, final int column) {
+            // snapshots are added in order, the columns of this snapshot are at the end
+            for (int k = size - 2; k >= 0 && columns[k] == snapshot; k -= 2) {
+                if (columns[k + 1] == column) {
+                    return;
+                }
+            }
+            if (size == columns.length) {
+                columns = Arrays.copyOf(columns, size * 2);
+            }
+            columns[size++] = snapshot;
+            columns[size++] = column;
+        }
+
+        /**
+         * @param family family of a sample
+         * @return true if the sample belongs to these samples
+         */
+        private boolean accepts(final Family family) {
+            return family == this.family || (family != null && family.name.equals(this.family.name));
+        }
+    }
+
+    /**
+     * Adds a directory to export.
+     *
+     * @param directory monitor directory
+     */
+    public void addDirectory(@Nonnull final MonitorDirectory<?> directory) {
+        directories.add(directory);
+    }
+
+    /**
+     * Removes an exported directory.
+     *
+     * @param directory monitor directory
+     */
+    public void removeDirectory(@Nonnull final MonitorDirectory<?> directory) {
+        directories.remove(directory);
+    }
+
+    /**
+     * Renders all directories and writes the exposition.
+     *
+     * @param out stream to write to
+     * @throws IOException when writing fails
+     */
+    public void scrape(@Nonnull final OutputStream out) throws IOException {
+        final OutputBuffer buffer = exposition();
+        try {
+            out.write(buffer.bytes, 0, buffer.size);
+        } finally {
+            release(buffer);
+        }
+    }
+
+    /**
+     * Starts serving {@link #PATH}. Requests are handled one at a time on the server thread.
+     *
+     * @param address address to bind, port 0 for any free port
+     * @throws IOException when the server cannot bind
+     */
+    public synchronized void start(@Nonnull final InetSocketAddress address) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Exporter already started");
+        }
+        final HttpServer created = HttpServer.create(address, 0);
+        created.createContext(PATH, this::handle);
+        created.start();
+        server = created;
+    }
+
+    /**
+     * @return address the server is bound to
+     */
+    public synchronized InetSocketAddress getAddress() {
+        if (server == null) {
+            throw new IllegalStateException("Exporter not started");
+        }
+        return server.getAddress();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public void close() {
+        final HttpServer stopped;
+        synchronized (this) {
+            stopped = server;
+            server = null;
+        }
+        // stop waits for the dispatcher thread, which may be handling a scrape
+        if (stopped != null) {
+            stopped.stop(0);
+        }
+    }
+
+    /**
+     * @param exchange HTTP exchange
+     * @throws IOException when the response cannot be sent
+     */
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            final OutputBuffer buffer = exposition();
+            try {
+                exchange.sendResponseHeaders(200, buffer.size);
+                final OutputStream body = exchange.getResponseBody();
+                try {
+                    body.write(buffer.bytes, 0, buffer.size);
+                } finally {
+                    body.close();
+                }
+            } finally {
+                release(buffer);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return buffer holding the exposition of all directories, to be released once written
+     */
+    private OutputBuffer exposition() {
+        synchronized (renderLock) {
+            OutputBuffer buffer = freeBuffers.poll();
+            if (buffer == null) {
+                buffer = new OutputBuffer(INITIAL_BUFFER_SIZE);
+            }
+            render(buffer);
+            return buffer;
+        }
+    }
+
+    /**
+     * @param buffer buffer returned by exposition, no longer used
+     */
+    private void release(final OutputBuffer buffer) {
+        synchronized (renderLock) {
+            if (freeBuffers.size() < MAX_FREE_BUFFERS) {
+                freeBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * Renders the snapshots of all directories into the buffer. Samples are grouped by family name across directories and monitor classes,
+     * each family is written once.
+     *
+     * @param buffer buffer to render into, cleared first
+     */
+    private void render(final OutputBuffer buffer) {
+        final List<MonitorSnapshot> snapshots = new ArrayList<>(directories.size());
+        // families of each monitor by column, per snapshot
+        final List<Family[][]> rows = new ArrayList<>(directories.size());
+        final Map<String, Samples> samples = new LinkedHashMap<>();
+        for (final MonitorDirectory<?> directory : directories) {
+            final MonitorSnapshot snapshot = directory.snapshot();
+            final int index = snapshots.size();
+            final Map<Class<?>, Family[]> byClass = new IdentityHashMap<>();
+            final Family[][] families = new Family[snapshot.getMonitorCount()][];
+            for (int i = 0; i < families.length; i++) {
+                families[i] = byClass.computeIfAbsent(snapshot.getMonitorClass(i), type -> columns(type, snapshot, index, samples));
+            }
+            snapshots.add(snapshot);
+            rows.add(families);
+        }
+        buffer.size = 0;
+        for (final Samples group : samples.values()) {
+            buffer.write(group.family.header);
+            for (int k = 0; k < group.size; k += 2) {
+                final MonitorSnapshot snapshot = snapshots.get(group.columns[k]);
+                final Family[][] families = rows.get(group.columns[k]);
+                final int m = group.columns[k + 1];
+                for (int i = 0; i < snapshot.getMonitorCount(); i++) {
+                    final double value = snapshot.getValue(m, i);
+                    // NaN is a metric the monitor does not have, other classes of the directory may name the column differently
+                    if (Double.isNaN(value) || !group.accepts(families[i][m])) {
+                        continue;
+                    }
+                    buffer.write(families[i][m].samplePrefix);
+                    buffer.writeLabelValue(snapshot.getMonitorName(i));
+                    buffer.write(LABELS_END);
+                    buffer.writeNumber(value);
+                    buffer.write('\n');
+                }
+            }
+        }
+        buffer.write(EOF);
+    }
+
+    /**
+     * @param type monitor class
+     * @param snapshot snapshot holding monitors of the class
+     * @param index index of the snapshot
+     * @param samples samples by family name, the columns of the class are added
+     * @return family of each column of the snapshot for monitors of the class, null for the metrics the class does not have
+     */
+    private static Family[] columns(final Class<?> type, final MonitorSnapshot snapshot, final int index, final Map<String, Samples> samples) {
+        final Map<String, Family> byName = FAMILIES.get(type);
+        final Family[] columns = new Family[snapshot.getMetricCount()];
+        for (int m = 0; m < columns.length; m++) {
+            final Family family = byName.get(snapshot.getMetricName(m));
+            if (family != null) {
+                columns[m] = family;
+                samples.computeIfAbsent(family.name, name -> new Samples(family)).add(index, m);
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param type monitor class
+     * @return families of the numeric metrics of the class by attribute name
+     */
+    private static Map<String, Family> families(final Class<?> type) {
+        final MetricAccessors accessors = MetricAccessors.of(type);
+        final MetricClass metricClass = type.getAnnotation(MetricClass.class);
+        final String prefix = snakeCase(metricClass != null ? metricClass.name() : type.getSimpleName());
+        final String[] names = accessors.getNames();
+        final Map<String, Family> families = new HashMap<>();
+        for (int i = 0; i < names.length; i++) {
+            final Metric metric = accessors.getMetric(i);
+            final String unit = snakeCase(metric.unit());
+            final String name = prefix + "_" + snakeCase(names[i]) + (unit.isEmpty() ? "" : "_" + unit);
+            final StringBuilder header = new StringBuilder();
+            header.append("# HELP ").append(name).append(' ').append(metric.type()).append(" of the last window\n");
+            header.append("# TYPE ").append(name).append(" gauge\n");
+            if (!unit.isEmpty()) {
+                header.append("# UNIT ").append(name).append(' ').append(unit).append('\n');
+            }
+            families.put(names[i], new Family(name, header.toString().getBytes(StandardCharsets.UTF_8), ascii(name + "{monitor=\"")));
+        }
+        return families;
+    }
+
+    /**
+     * Converts a camel case name to a valid metric name in snake case.
+     *
+     * @param name name
+     * @return snake case name, characters not allowed in metric names replaced by _
+     */
+    static String snakeCase(@Nonnull final String name) {
+        final StringBuilder snake = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            final boolean upper = c >= 'A' && c <= 'Z';
+            if (upper || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (i == 0 && c <= '9') {
+                    snake.append('_');
+                }
+                if (upper && i > 0 && (Character.isLowerCase(name.charAt(i - 1)) || Character.isDigit(name.charAt(i - 1)))) {
+                    snake.append('_');
+                }
+                snake.append(Character.toLowerCase(c));
+            } else {
+                snake.append('_');
+            }
+        }
+        return snake.toString();
+    }
+
+    /**
+     * @param text ASCII text
+     * @return bytes of the text
+     */
+    private static byte[] ascii(final String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Growable byte buffer writing UTF-8 and numbers without intermediate strings.
+     */
+    private static final class OutputBuffer {
+        /** Digits of a long. */
+        private final byte[] digits = new byte[20];
+        /** Content. */
+        private byte[] bytes;
+        /** Number of bytes written. */
+        private int size;
+
+        /**
+         * @param capacity initial capacity
+         */
+        private OutputBuffer(final int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        /**
+         * @param extra number of bytes to write
+         */
+        private void ensure(final int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        /**
+         * @param b byte
+         */
+        private void write(final int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        /**
+         * @param b bytes
+         */
+        private void write(final byte[] b) {
+            ensure(b.length);
+            System.arraycopy(b, 0, bytes, size, b.length);
+            size += b.length;
+        }
+
+        /**
+         * Writes a label value, escaping backslash, double quote and line feed.
+         *
+         * @param value label value
+         */
+        private void writeLabelValue(final String value) {
+            // room for plain ASCII, the other characters make room themselves
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                final char c = value.charAt(i);
+                if (c < 0x80 && c != '\\' && c != '"' && c != '\n') {
+                    bytes[size++] = (byte) c;
+                    continue;
+                }
+                if (c == '\\' || c == '"') {
+                    write('\\');
+                    write(c);
+                } else if (c == '\n') {
+                    write('\\');
+                    write('n');
+                } else if (c < 0x800) {
+                    write(0xc0 | (c >> 6));
+                    write(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    write(0xf0 | (codePoint >> 18));
+                    write(0x80 | ((codePoint >> 12) & 0x3f));
+                    write(0x80 | ((codePoint >> 6) & 0x3f));
+                    write(0x80 | (codePoint & 0x3f));
+                } else {
+                    write(0xe0 | (c >> 12));
+                    write(0x80 | ((c >> 6) & 0x3f));
+                    write(0x80 | (c & 0x3f));
+                }
+                // the character may have used the room of the following ones
+                ensure(value.length() - i - 1);
+            }
+        }
+
+        /**
+         * Writes a value, integral values without fraction.
+         *
+         * @param value value
+         */
+        private void writeNumber(final double value) {
+            if (value == (long) value && Math.abs(value) < MAX_INTEGER) {
+                writeLong((long) value);
+            } else if (Double.isInfinite(value)) {
+                write(ascii(value > 0 ? "+Inf" : "-Inf"));
+            } else {
+                write(ascii(Double.toString(value)));
+            }
+        }
+
+        /**
+         * @param value value, larger than Long.MIN_VALUE
+         */
+        private void writeLong(final long value) {
+            long remaining = Math.abs(value);
+            int start = digits.length;
+            do {
+                digits[--start] = (byte) ('0' + (remaining % 10));
+                remaining /= 10;
+            } while (remaining != 0);
+            if (value < 0) {
+                write('-');
+            }
+            ensure(digits.length - start);
+            System.arraycopy(digits, start, bytes, size, digits.length - start);
+            size += digits.length - start;
+        }
+    }
+}
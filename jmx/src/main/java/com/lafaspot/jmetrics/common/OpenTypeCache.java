@@ -0,0 +1,142 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+
+/**
+ * Process wide cache of the open types and immutable open data of metric metadata, keyed by shape. Monitors with the same shape share one
+ * instance, which keeps the heap small with many monitor classes and lets JMX serialisation write a shared instance once per stream.
+ *
+ * Entries hold strings and JDK open types only, never a monitor class, so they do not pin class loaders. They live until their map reaches
+ * {@link #MAX_ENTRIES}, the map is then cleared, which bounds the growth when class loaders keep loading new monitor classes. Instances handed
+ * out before a clear stay valid, they are only no longer shared with the later ones.
+ */
+final class OpenTypeCache {
+    /** Maximum number of entries of each map. */
+    static final int MAX_ENTRIES = 8192;
+
+    /** CompositeTypes by shape. */
+    private static final ConcurrentMap<List<Object>, CompositeType> COMPOSITE_TYPES = new ConcurrentHashMap<>();
+    /** CompositeData by type and values. */
+    private static final ConcurrentMap<List<Object>, CompositeData> COMPOSITE_DATA = new ConcurrentHashMap<>();
+    /** Interned strings. */
+    private static final ConcurrentMap<String, String> STRINGS = new ConcurrentHashMap<>();
+
+    /**
+     * Utility class.
+     */
+    private OpenTypeCache() {
+    }
+
+    /**
+     * Gets the CompositeType of a shape, creating it the first time.
+     *
+     * @param typeName type name
+     * @param description type description
+     * @param itemNames item names
+     * @param itemDescriptions item descriptions
+     * @param itemTypes item types
+     * @return shared CompositeType
+     * @throws OpenDataException when the type is not valid
+     */
+    @Nonnull
+    static CompositeType compositeType(@Nonnull final String typeName, @Nonnull final String description, @Nonnull final String[] itemNames,
+            @Nonnull final String[] itemDescriptions, @SuppressWarnings("rawtypes") @Nonnull final OpenType[] itemTypes)
+            throws OpenDataException {
+        final List<Object> key = Arrays.<Object>asList(typeName, description, Arrays.asList(itemNames.clone()),
+                Arrays.asList(itemDescriptions.clone()), Arrays.asList(itemTypes.clone()));
+        final CompositeType cached = COMPOSITE_TYPES.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final String[] names = new String[itemNames.length];
+        final String[] descriptions = new String[itemDescriptions.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = intern(itemNames[i]);
+            descriptions[i] = intern(itemDescriptions[i]);
+        }
+        final CompositeType type = new CompositeType(intern(typeName), intern(description), names, descriptions, itemTypes);
+        return share(COMPOSITE_TYPES, key, type);
+    }
+
+    /**
+     * Gets the CompositeData of a type and values, creating it the first time. CompositeDataSupport is immutable, so it can be shared.
+     *
+     * @param type CompositeType
+     * @param itemNames item names
+     * @param itemValues item values, Strings
+     * @return shared CompositeData
+     * @throws OpenDataException when the values do not fit the type
+     */
+    @Nonnull
+    static CompositeData compositeData(@Nonnull final CompositeType type, @Nonnull final String[] itemNames, @Nonnull final String[] itemValues)
+            throws OpenDataException {
+        final List<Object> key = Arrays.<Object>asList(type, Arrays.asList(itemNames.clone()), Arrays.asList(itemValues.clone()));
+        final CompositeData cached = COMPOSITE_DATA.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Object[] values = new Object[itemValues.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = intern(itemValues[i]);
+        }
+        final CompositeData data = new CompositeDataSupport(type, itemNames, values);
+        return share(COMPOSITE_DATA, key, data);
+    }
+
+    /**
+     * Interns a string in this cache, not in the JVM string table.
+     *
+     * @param value string
+     * @return the shared instance equal to value
+     */
+    @Nonnull
+    static String intern(@Nonnull final String value) {
+        final String cached = STRINGS.get(value);
+        return cached != null ? cached : share(STRINGS, value, value);
+    }
+
+    /**
+     * Adds a value to a map, clearing the map first when it is full.
+     *
+     * @param <K> key class
+     * @param <V> value class
+     * @param map map to add to
+     * @param key key
+     * @param value value to share
+     * @return the shared value, the one of a racing thread if it won
+     */
+    private static <K, V> V share(final ConcurrentMap<K, V> map, final K key, final V value) {
+        if (map.size() >= MAX_ENTRIES) {
+            map.clear();
+        }
+        final V raced = map.putIfAbsent(key, value);
+        return raced != null ? raced : value;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nonnull;
+
+import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
+
+/**
+ * Quantile sketch for values with a large dynamic range, such as payload sizes or queue depths. Positive values are counted in logarithmic bins
+ * of ratio gamma = (1 + accuracy) / (1 - accuracy), so every quantile is returned within the relative accuracy of the true value whatever its
+ * magnitude (DDSketch). The bins covering the positive long range, about 2200 at 1% accuracy, are split in pages of {@value #PAGE_SIZE} allocated
+ * on the first value they hold, so a sketch only holds the pages of the magnitudes it has seen. Recording does not lock and only allocates
+ * when it reaches a new page, reset keeps the pages. Zero and negative values are counted as 0.
+ */
+public class QuantileSketch implements State<QuantileSketch>, Mergeable<QuantileSketch> {
+    /** Default relative accuracy. */
+    public static final double DEFAULT_ACCURACY = 0.01;
+    /** Number of bins per page, a power of 2. */
+    private static final int PAGE_SIZE = 64;
+    /** log2(PAGE_SIZE). */
+    private static final int PAGE_SHIFT = 6;
+
+    /** Relative accuracy. */
+    private final double accuracy;
+    /** Bin ratio. */
+    private final double gamma;
+    /** 1 / ln(gamma). */
+    private final double inverseLogGamma;
+    /** Pages of bin counts, bin i is at index i % PAGE_SIZE of page i / PAGE_SIZE and holds values in (gamma^(i-1), gamma^i]. */
+    private final AtomicReferenceArray<AtomicLongArray> pages;
+    /** Number of values at or below 0. */
+    private final LongAdder zeroCount = new LongAdder();
+    /** Number of recorded values. */
+    private final LongAdder count = new LongAdder();
+    /** Smallest recorded value. */
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    /** Largest recorded value. */
+    private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+
+    /**
+     * Creates a sketch with {@link #DEFAULT_ACCURACY}.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_ACCURACY);
+    }
+
+    /**
+     * @param accuracy relative accuracy of the quantiles, between 0.0001 and 0.5
+     */
+    public QuantileSketch(final double accuracy) {
+        if (!(accuracy >= 0.0001 && accuracy <= 0.5)) {
+            throw new IllegalArgumentException("Invalid accuracy " + accuracy);
+        }
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.inverseLogGamma = 1 / Math.log(gamma);
+        this.pages = new AtomicReferenceArray<>((bin(Long.MAX_VALUE) >> PAGE_SHIFT) + 1);
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value the value
+     */
+    public void record(final long value) {
+        if (value <= 0) {
+            zeroCount.increment();
+        } else {
+            final int bin = bin(value);
+            page(bin >> PAGE_SHIFT).incrementAndGet(bin & (PAGE_SIZE - 1));
+        }
+        count.increment();
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * @return number of recorded values
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return smallest recorded value, 0 if empty, negative values count as 0
+     */
+    public long getMin() {
+        return getCount() == 0 ? 0 : Math.max(min.get(), 0);
+    }
+
+    /**
+     * @return largest recorded value, 0 if empty, negative values count as 0
+     */
+    public long getMax() {
+        return getCount() == 0 ? 0 : Math.max(max.get(), 0);
+    }
+
+    /**
+     * @return relative accuracy of the quantiles
+     */
+    public double getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Returns the value at a quantile, within the relative accuracy of the recorded value of that rank.
+     *
+     * @param quantile from 0 to 1
+     * @return value at the quantile, 0 if empty
+     */
+    public long getValueAtQuantile(final double quantile) {
+        final long zeros = zeroCount.sum();
+        long total = zeros;
+        for (int p = 0; p < pages.length(); p++) {
+            final AtomicLongArray page = pages.get(p);
+            for (int i = 0; page != null && i < PAGE_SIZE; i++) {
+                total += page.get(i);
+            }
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) (Math.min(Math.max(quantile, 0), 1) * (total - 1));
+        if (rank < zeros) {
+            return 0;
+        }
+        long seen = zeros;
+        for (int p = 0; p < pages.length(); p++) {
+            final AtomicLongArray page = pages.get(p);
+            for (int i = 0; page != null && i < PAGE_SIZE; i++) {
+                seen += page.get(i);
+                if (seen > rank) {
+                    // middle of the bin in relative terms
+                    final long value = Math.round(2 * Math.pow(gamma, (p << PAGE_SHIFT) + i) / (gamma + 1));
+                    return Math.min(Math.max(value, getMin()), getMax());
+                }
+            }
+        }
+        return getMax();
+    }
+
+    @Override
+    public void reset(@Nonnull final QuantileSketch stableState) {
+        for (int p = 0; p < pages.length(); p++) {
+            final AtomicLongArray page = pages.get(p);
+            for (int i = 0; page != null && i < PAGE_SIZE; i++) {
+                if (page.get(i) != 0) {
+                    page.set(i, 0);
+                }
+            }
+        }
+        zeroCount.reset();
+        count.reset();
+        min.reset();
+        max.reset();
+    }
+
+    @Override
+    public void merge(@Nonnull final QuantileSketch other) {
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Accuracy mismatch " + other.accuracy + " != " + accuracy);
+        }
+        for (int p = 0; p < other.pages.length(); p++) {
+            final AtomicLongArray otherPage = other.pages.get(p);
+            for (int i = 0; otherPage != null && i < PAGE_SIZE; i++) {
+                final long binCount = otherPage.get(i);
+                if (binCount != 0) {
+                    page(p).addAndGet(i, binCount);
+                }
+            }
+        }
+        zeroCount.add(other.zeroCount.sum());
+        count.add(other.count.sum());
+        min.accumulate(other.min.get());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * @param index page index
+     * @return the page, allocated on first use
+     */
+    private AtomicLongArray page(final int index) {
+        final AtomicLongArray page = pages.get(index);
+        if (page != null) {
+            return page;
+        }
+        pages.compareAndSet(index, null, new AtomicLongArray(PAGE_SIZE));
+        return pages.get(index);
+    }
+
+    /**
+     * @param value positive value
+     * @return bin index
+     */
+    private int bin(final long value) {
+        return (int) Math.ceil(Math.log(value) * inverseLogGamma);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", min=" + getMin() + ", max=" + getMax();
+    }
+}
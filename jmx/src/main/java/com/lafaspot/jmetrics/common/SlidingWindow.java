@@ -0,0 +1,155 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+import javax.annotation.Nonnull;
+
+import com.lafaspot.common.types.TimeValue;
+import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
+
+/**
+ * Sliding window over a ring of sub-bucket states, for example 5 minutes split into 60 buckets of 5 seconds. Writers update the current bucket
+ * like any MonitorStateHandler state, readers add up the buckets that started within the span so rates move smoothly instead of jumping on
+ * every flip.
+ *
+ * update should be called frequently, as with MonitorStateHandler, buckets are rotated in place by it.
+ *
+ * @param <T> - client state class
+ */
+public class SlidingWindow<T extends State<T>> {
+    /** Ring of buckets. */
+    private final MonitorStateHandler<T> handler;
+    /** Clock used for the buckets. */
+    private final CoarseClock clock;
+    /** Span covered by the window in milliseconds. */
+    private final long spanMillis;
+
+    /**
+     * @param buckets pre-allocated bucket states, the span is split evenly between them
+     * @param span time covered by the window
+     * @param clock clock used for the buckets
+     */
+    public SlidingWindow(@Nonnull final T[] buckets, @Nonnull final TimeValue span, @Nonnull final CoarseClock clock) {
+        final long bucketMillis = span.toMillis() / buckets.length;
+        if (bucketMillis <= 0) {
+            throw new IllegalArgumentException("Span " + span + " too short for " + buckets.length + " buckets");
+        }
+        this.handler = new MonitorStateHandler<T>(buckets, new TimeValue(bucketMillis, TimeUnit.MILLISECONDS), clock);
+        this.clock = clock;
+        this.spanMillis = span.toMillis();
+    }
+
+    /**
+     * Creates a window using the shared {@link CoarseClock}.
+     *
+     * @param buckets pre-allocated bucket states, the span is split evenly between them
+     * @param span time covered by the window
+     */
+    public SlidingWindow(@Nonnull final T[] buckets, @Nonnull final TimeValue span) {
+        this(buckets, span, CoarseClock.getDefault());
+    }
+
+    /**
+     * @return The current bucket, see {@link MonitorStateHandler#beginWrite()}
+     */
+    public T beginWrite() {
+        return handler.beginWrite();
+    }
+
+    /**
+     * @param current the bucket returned by beginWrite
+     */
+    public void endWrite(@Nonnull final T current) {
+        handler.endWrite(current);
+    }
+
+    /**
+     * Rotates the buckets when the current one is full.
+     */
+    public void update() {
+        handler.update();
+    }
+
+    /**
+     * @return the bucket ring
+     */
+    public MonitorStateHandler<T> getHandler() {
+        return handler;
+    }
+
+    /**
+     * Adds up a counter over the buckets that started within the span, including the current partial bucket.
+     *
+     * @param counter reads the counter from a bucket
+     * @return sum over the window
+     */
+    public long sum(@Nonnull final ToLongFunction<T> counter) {
+        return aggregate(counter, null);
+    }
+
+    /**
+     * Rate of a counter over the window. Before the window is full, and after idle periods where buckets were not rotated, the rate is taken
+     * over the time the included buckets cover.
+     *
+     * @param counter reads the counter from a bucket
+     * @param unit rate unit, for example TimeUnit.SECONDS for a per second rate
+     * @return counter increase per unit
+     */
+    public double rate(@Nonnull final ToLongFunction<T> counter, @Nonnull final TimeUnit unit) {
+        final long[] covered = new long[1];
+        final long sum = aggregate(counter, covered);
+        if (covered[0] <= 0) {
+            return 0;
+        }
+        return (double) sum * unit.toMillis(1) / covered[0];
+    }
+
+    /**
+     * @param counter reads the counter from a bucket
+     * @param covered receives the time covered by the included buckets, may be null
+     * @return sum over the window
+     */
+    private long aggregate(final ToLongFunction<T> counter, final long[] covered) {
+        handler.update();
+        while (true) {
+            final long flip = handler.getLastUpdate();
+            final long now = clock.currentTimeMillis();
+            final long since = now - spanMillis;
+            long sum = 0;
+            long oldest = now;
+            for (int k = 0; k < handler.size(); k++) {
+                final long start = handler.getWindowStart(k);
+                if (start < since) {
+                    // stale or never used, older buckets are older still
+                    break;
+                }
+                sum += counter.applyAsLong(handler.history(k));
+                oldest = start;
+            }
+            if (handler.getLastUpdate() == flip) {
+                if (covered != null) {
+                    covered[0] = now - oldest;
+                }
+                return sum;
+            }
+        }
+    }
+}
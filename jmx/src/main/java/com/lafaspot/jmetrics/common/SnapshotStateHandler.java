@@ -0,0 +1,167 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lafaspot.common.types.TimeValue;
+import com.lafaspot.jmetrics.common.MonitorStateHandler.State;
+
+/**
+ * Handler publishing an immutable snapshot of every completed window. The snapshot is built once per flip, after the writers of the window are
+ * drained, and published through a single volatile reference, so getters read one coherent window with plain field loads.
+ *
+ * Writers drive the flips, beginWrite calls update first. Readers only call update once the window has elapsed, so a monitor without writes
+ * reports an empty window like the update driven handlers. Handlers scheduled on a {@link FlipScheduler} are flipped by the scheduler.
+ *
+ * The snapshotter runs inside the flip while new writers wait, it should be short. A snapshotter failure is logged and the previous snapshot
+ * is kept.
+ *
+ * @param <T> client state class
+ * @param <S> snapshot class
+ */
+public class SnapshotStateHandler<T extends State<T>, S> extends MonitorStateHandler<T> {
+    /**
+     * Builds the snapshot of a completed window.
+     *
+     * @param <T> client state class
+     * @param <S> snapshot class
+     */
+    public interface Snapshotter<T, S> {
+        /**
+         * @param completed state of the completed window, must not be kept by the snapshot
+         * @param start start time of the window in milliseconds
+         * @param end end time of the window in milliseconds
+         * @return immutable snapshot of the window
+         */
+        @Nonnull
+        S snapshot(@Nonnull T completed, long start, long end);
+    }
+
+    /** Get logger. */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /** Builds the snapshots. */
+    private final Snapshotter<? super T, ? extends S> snapshotter;
+
+    /** Snapshot of the last completed window. */
+    private volatile S snapshot;
+
+    /**
+     * Creates a handler keeping a ring of states, the first state is the current one.
+     *
+     * @param states states of the ring, at least 2
+     * @param timeWindow expiration window
+     * @param clock clock used for the window
+     * @param snapshotter builds the snapshot of each completed window
+     */
+    public SnapshotStateHandler(final T[] states, final TimeValue timeWindow, final CoarseClock clock,
+            @Nonnull final Snapshotter<? super T, ? extends S> snapshotter) {
+        this(states, timeWindow, clock, false, snapshotter);
+    }
+
+    /**
+     * Creates a handler keeping a ring of states, the first state is the current one.
+     *
+     * @param states states of the ring, at least 2
+     * @param timeWindow expiration window
+     * @param clock clock used for the window
+     * @param aligned true to start the windows at multiples of the window since the epoch
+     * @param snapshotter builds the snapshot of each completed window
+     */
+    public SnapshotStateHandler(final T[] states, final TimeValue timeWindow, final CoarseClock clock, final boolean aligned,
+            @Nonnull final Snapshotter<? super T, ? extends S> snapshotter) {
+        super(states, timeWindow, clock, aligned);
+        this.snapshotter = snapshotter;
+        this.snapshot = snapshotter.snapshot(history(1), getLastUpdate(), getLastUpdate());
+    }
+
+    /**
+     * Creates a handler with a current and a stable state.
+     *
+     * @param current current state
+     * @param stable stable state
+     * @param timeWindow expiration window
+     * @param clock clock used for the window
+     * @param snapshotter builds the snapshot of each completed window
+     */
+    public SnapshotStateHandler(final T current, final T stable, final TimeValue timeWindow, final CoarseClock clock,
+            @Nonnull final Snapshotter<? super T, ? extends S> snapshotter) {
+        this(current, stable, timeWindow, clock, false, snapshotter);
+    }
+
+    /**
+     * Creates a handler with a current and a stable state.
+     *
+     * @param current current state
+     * @param stable stable state
+     * @param timeWindow expiration window
+     * @param clock clock used for the window
+     * @param aligned true to start the windows at multiples of the window since the epoch
+     * @param snapshotter builds the snapshot of each completed window
+     */
+    public SnapshotStateHandler(final T current, final T stable, final TimeValue timeWindow, final CoarseClock clock, final boolean aligned,
+            @Nonnull final Snapshotter<? super T, ? extends S> snapshotter) {
+        super(current, stable, timeWindow, clock, aligned);
+        this.snapshotter = snapshotter;
+        this.snapshot = snapshotter.snapshot(stable, getLastUpdate(), getLastUpdate());
+    }
+
+    /**
+     * Creates a handler with a current and a stable state using the shared {@link CoarseClock}.
+     *
+     * @param current current state
+     * @param stable stable state
+     * @param timeWindow expiration window
+     * @param snapshotter builds the snapshot of each completed window
+     */
+    public SnapshotStateHandler(final T current, final T stable, final TimeValue timeWindow,
+            @Nonnull final Snapshotter<? super T, ? extends S> snapshotter) {
+        this(current, stable, timeWindow, CoarseClock.getDefault(), snapshotter);
+    }
+
+    /**
+     * @return snapshot of the last completed window, the empty stable state before the first flip
+     */
+    @Nonnull
+    public S snapshot() {
+        if (windowElapsed()) {
+            update();
+        }
+        return snapshot;
+    }
+
+    @Override
+    public T beginWrite() {
+        update();
+        return super.beginWrite();
+    }
+
+    @Override
+    protected void flipped(@Nonnull final T completed, final long start, final long end) {
+        try {
+            snapshot = snapshotter.snapshot(completed, start, end);
+        } catch (final RuntimeException e) {
+            // a failure must not reach the writer that triggered the flip
+            logger.error("Snapshot of the window failed, keeping the previous snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Writes the frames to a TCP connection, a local agent for instance. The connection is opened on the first frame and again on the frame
+ * after a failure.
+ */
+public class SocketMetricSink implements MetricSink {
+    /** Agent address. */
+    private final InetSocketAddress address;
+    /** Connection, null when not connected. */
+    private SocketChannel channel;
+
+    /**
+     * @param address agent address
+     */
+    public SocketMetricSink(@Nonnull final InetSocketAddress address) {
+        this.address = address;
+    }
+
+    @Override
+    public void send(@Nonnull final ByteBuffer frame) throws IOException {
+        if (channel == null) {
+            channel = SocketChannel.open(address);
+        }
+        try {
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Sends each frame as one UDP datagram to a StatsD server. The reporter frame size should fit the path MTU, 1432 bytes by default.
+ */
+public class StatsdMetricSink implements MetricSink {
+    /** Datagram channel, connected to the server. */
+    private final DatagramChannel channel;
+
+    /**
+     * @param address StatsD server address
+     * @throws IOException when the channel cannot be opened
+     */
+    public StatsdMetricSink(@Nonnull final InetSocketAddress address) throws IOException {
+        channel = DatagramChannel.open();
+        channel.connect(address);
+    }
+
+    @Override
+    public void send(@Nonnull final ByteBuffer frame) throws IOException {
+        channel.write(frame);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
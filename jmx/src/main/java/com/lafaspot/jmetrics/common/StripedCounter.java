@@ -0,0 +1,53 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sum counter for monitor state. Writes are spread over padded cells so concurrent writers do not contend on a single cache line the way they
+ * do with an {@link java.util.concurrent.atomic.AtomicLong}.
+ */
+public class StripedCounter extends WindowCounter {
+    /** Striped cells. */
+    private final LongAdder cells = new LongAdder();
+
+    /**
+     * @param value value to add
+     */
+    public void add(final long value) {
+        cells.add(value);
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+        cells.increment();
+    }
+
+    @Override
+    protected long aggregate() {
+        return cells.sum();
+    }
+
+    @Override
+    protected void clear() {
+        cells.reset();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Maximum value counter for monitor state, backed by padded cells so concurrent writers do not contend on a single cache line.
+ */
+public class StripedMaxCounter extends WindowCounter {
+    /** Striped cells. */
+    private final LongAccumulator cells = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param value value to record, kept if it is larger than the current maximum
+     */
+    public void record(final long value) {
+        cells.accumulate(value);
+    }
+
+    @Override
+    protected long aggregate() {
+        return cells.get();
+    }
+
+    @Override
+    protected void clear() {
+        cells.reset();
+    }
+}
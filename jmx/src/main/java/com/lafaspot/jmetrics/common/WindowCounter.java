@@ -0,0 +1,89 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Base class for counters kept inside a {@link MonitorStateHandler.State}. Writers update the current copy, the stable copy is sealed once per
+ * flip so that reads do not have to aggregate the underlying cells on every call.
+ *
+ * <pre>
+ * public void reset(final MonitorState stable) {
+ *     requestCount.reset(stable.requestCount);
+ * }
+ * </pre>
+ */
+public abstract class WindowCounter {
+    /** Value captured when this counter became the stable copy. */
+    private volatile long sealedValue;
+    /** Set once the counter has been sealed, cleared on reset. */
+    private volatile boolean sealed;
+
+    /**
+     * @return the current value, the sealed value for a stable copy or the live aggregate for a current copy
+     */
+    public final long get() {
+        if (sealed) {
+            return sealedValue;
+        }
+        return aggregate();
+    }
+
+    /**
+     * @return true if this counter holds the value of a closed window
+     */
+    public final boolean isSealed() {
+        return sealed;
+    }
+
+    /**
+     * Should be called from {@link MonitorStateHandler.State#reset(Object)} on the instance that is becoming current. Seals the stable copy and
+     * clears this copy so it can take new writes.
+     *
+     * @param stable the counter of the stable state
+     */
+    public final void reset(@Nonnull final WindowCounter stable) {
+        stable.seal();
+        sealed = false;
+        clear();
+    }
+
+    /**
+     * Captures the aggregate of all cells, further reads return this value until the next reset.
+     */
+    public final void seal() {
+        sealedValue = aggregate();
+        sealed = true;
+    }
+
+    /**
+     * @return aggregate of all cells
+     */
+    protected abstract long aggregate();
+
+    /**
+     * Clears all cells.
+     */
+    protected abstract void clear();
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
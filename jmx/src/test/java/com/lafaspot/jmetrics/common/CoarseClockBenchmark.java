@@ -0,0 +1,100 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares System.currentTimeMillis() with {@link CoarseClock} for the clock reads of the monitor write and read paths. Run with 1 and 8 threads
+ * through {@link #main(String[])}.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoarseClockBenchmark {
+    /** Thread counts to compare. */
+    private static final int[] THREADS = {1, 8};
+
+    /** Clock under test. */
+    private final CoarseClock clock = CoarseClock.getDefault();
+
+    /** Last write time stamp, as kept by monitor state classes. */
+    private final AtomicLong lastWrite = new AtomicLong();
+
+    /**
+     * @return system time
+     */
+    @Benchmark
+    public long systemClock() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return coarse time
+     */
+    @Benchmark
+    public long coarseClock() {
+        return clock.currentTimeMillis();
+    }
+
+    /**
+     * Setter path stamping the write time with the system clock.
+     */
+    @Benchmark
+    public void lastWriteSystemClock() {
+        lastWrite.lazySet(System.currentTimeMillis());
+    }
+
+    /**
+     * Setter path stamping the write time with the coarse clock.
+     */
+    @Benchmark
+    public void lastWriteCoarseClock() {
+        lastWrite.lazySet(clock.currentTimeMillis());
+    }
+
+    /**
+     * Runs the benchmark for every thread count.
+     *
+     * @param args not used
+     * @throws RunnerException when the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        for (final int threads : THREADS) {
+            new Runner(new OptionsBuilder().include(CoarseClockBenchmark.class.getSimpleName()).threads(threads).build()).run();
+        }
+    }
+}
@@ -56,8 +56,11 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     /** 0.05 % value. */
     private static final double PCT005 = 0.05;
 
+    /** Clock used for write timestamps. */
+    private static final CoarseClock CLOCK = CoarseClock.getDefault();
+
     /** The state of the monitor. */
-    private final MonitorStateHandler<MonitorState> state;
+    private final SnapshotStateHandler<MonitorState, Stats> state;
     /** Identifies when the ConatinerMonitor expires. */
     private final TimeValue expire;
     /** Name of the MBean to to be used. */
@@ -171,7 +174,11 @@ public class ContainerMonitor implements ContainerMonitorMBean {
         /**
          * Time stamp of the last time we wrote to the monitor.
          */
-        private final AtomicLong lastWrite = new AtomicLong(System.currentTimeMillis());
+        private final AtomicLong lastWrite = new AtomicLong(CLOCK.currentTimeMillis());
+        /**
+         * Distribution of the request latencies.
+         */
+        private final LatencyHistogram latencyHistogram = new LatencyHistogram();
 
         @Override
         public void reset(final MonitorState stable) {
@@ -191,10 +198,90 @@ public class ContainerMonitor implements ContainerMonitorMBean {
             activeRequests.set(0);
             latency.set(0);
             latencyCount.set(0);
+            latencyHistogram.reset(stable.latencyHistogram);
             lastWrite.set(stable.lastWrite.get());
         }
     }
 
+    /**
+     * Immutable values of a completed window, built once per flip.
+     */
+    private static final class Stats {
+        /** Start time of the window. */
+        private final long start;
+        /** Max time of a request. */
+        private final long maxTime;
+        /** Average latency. */
+        private final long latency;
+        /** Median latency. */
+        private final long latencyP50;
+        /** 90th percentile of the latency. */
+        private final long latencyP90;
+        /** 99th percentile of the latency. */
+        private final long latencyP99;
+        /** 99.9th percentile of the latency. */
+        private final long latencyP999;
+        /** Max latency. */
+        private final long latencyMax;
+        /** Total number of requests. */
+        private final int requestCount;
+        /** Total number of errors. */
+        private final int errorCount;
+        /** Errors in percent of the requests. */
+        private final float errorPercentage;
+        /** Total number of bytes received in the request. */
+        private final long bytesReceived;
+        /** Total number of bytes sent in the response. */
+        private final long bytesSent;
+        /** Total number of rejected requests. */
+        private final long rejected;
+        /** Responses with status code 100 to 199. */
+        private final int response1xx;
+        /** Responses with status code 200 to 299. */
+        private final int response2xx;
+        /** Responses with status code 300 to 399. */
+        private final int response3xx;
+        /** Responses with status code 400 to 499. */
+        private final int response4xx;
+        /** Responses with status code 500 to 599. */
+        private final int response5xx;
+        /** Total number or max active requests. */
+        private final int maxActiveRequests;
+        /** Number of active requests. */
+        private final int activeRequests;
+
+        /**
+         * @param completed state of the completed window
+         * @param start start time of the window
+         * @param end end time of the window
+         */
+        private Stats(final MonitorState completed, final long start, final long end) {
+            this.start = start;
+            maxTime = completed.maxTime.get();
+            final long latencySum = completed.latency.get();
+            final long latencyCount = completed.latencyCount.get();
+            latency = (latencySum <= 0 || latencyCount <= 0) ? 0 : latencySum / latencyCount;
+            latencyP50 = completed.latencyHistogram.getValueAtPercentile(50);
+            latencyP90 = completed.latencyHistogram.getValueAtPercentile(90);
+            latencyP99 = completed.latencyHistogram.getValueAtPercentile(99);
+            latencyP999 = completed.latencyHistogram.getValueAtPercentile(99.9);
+            latencyMax = completed.latencyHistogram.getMax();
+            requestCount = completed.requestCount.get();
+            errorCount = completed.errorCount.get();
+            errorPercentage = (errorCount <= 0 || requestCount <= 0) ? 0 : (float) ((((double) errorCount) / requestCount) * MULTIPLY);
+            bytesReceived = completed.bytesReceived.get();
+            bytesSent = completed.bytesSent.get();
+            rejected = completed.rejected.get();
+            response1xx = completed.response1xx.get();
+            response2xx = completed.response2xx.get();
+            response3xx = completed.response3xx.get();
+            response4xx = completed.response4xx.get();
+            response5xx = completed.response5xx.get();
+            maxActiveRequests = completed.maxActiveRequests.get();
+            activeRequests = completed.activeRequests.get();
+        }
+    }
+
     /**
      * Creates the monitor for the container.
      *
@@ -204,7 +291,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      *            The time which says after what time the monitor will be unregistered if there is no activity.
      */
     public ContainerMonitor(final TimeValue window, final TimeValue expire) {
-        state = new MonitorStateHandler<MonitorState>(new MonitorState(), new MonitorState(), window);
+        state = new SnapshotStateHandler<MonitorState, Stats>(new MonitorState(), new MonitorState(), window, Stats::new);
         this.expire = expire;
     }
 
@@ -260,6 +347,11 @@ public class ContainerMonitor implements ContainerMonitorMBean {
         return state.getLastUpdate();
     }
 
+    @Override
+    public long getWindowStart() {
+        return state.snapshot().start;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -314,21 +406,44 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Override
     @Metric(enable = true, type = "count")
     public long getMaxTime() {
-        state.update();
-        return state.stable().maxTime.get();
+        return state.snapshot().maxTime;
     }
 
     @Override
     @Metric(enable = true, type = "latency", unit = "time")
     @MetricCheck(enable = true, type = "latency", min = MIN_LATENCY, max = MAX_LATENCY)
     public long getLatency() {
-        state.update();
-        // make sure we only use one instance this method
-        final MonitorState stable = state.stable();
-        if ((stable.latency.get() <= 0) || (stable.latencyCount.get() <= 0)) {
-            return 0;
-        }
-        return stable.latency.get() / stable.latencyCount.get();
+        return state.snapshot().latency;
+    }
+
+    @Override
+    @Metric(enable = true, type = "latency", unit = "time")
+    public long getLatencyP50() {
+        return state.snapshot().latencyP50;
+    }
+
+    @Override
+    @Metric(enable = true, type = "latency", unit = "time")
+    public long getLatencyP90() {
+        return state.snapshot().latencyP90;
+    }
+
+    @Override
+    @Metric(enable = true, type = "latency", unit = "time")
+    public long getLatencyP99() {
+        return state.snapshot().latencyP99;
+    }
+
+    @Override
+    @Metric(enable = true, type = "latency", unit = "time")
+    public long getLatencyP999() {
+        return state.snapshot().latencyP999;
+    }
+
+    @Override
+    @Metric(enable = true, type = "latency", unit = "time")
+    public long getLatencyMax() {
+        return state.snapshot().latencyMax;
     }
 
     /*
@@ -339,8 +454,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Override
     @Metric(enable = true, type = "count")
     public int getRequests() {
-        state.update();
-        return state.stable().requestCount.get();
+        return state.snapshot().requestCount;
     }
 
     /*
@@ -352,8 +466,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @MetricCheck(enable = true, type = "ratio", expression = "Errors / Requests", maxDeviation = PCT005)
     @Override
     public int getErrors() {
-        state.update();
-        return state.stable().errorCount.get();
+        return state.snapshot().errorCount;
     }
 
     /*
@@ -364,8 +477,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Override
     @Metric(enable = true, type = "count")
     public long getBytesReceived() {
-        state.update();
-        return state.stable().bytesReceived.get();
+        return state.snapshot().bytesReceived;
     }
 
     /*
@@ -376,8 +488,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Override
     @Metric(enable = true, type = "count")
     public long getBytesSent() {
-        state.update();
-        return state.stable().bytesSent.get();
+        return state.snapshot().bytesSent;
     }
 
     /*
@@ -389,13 +500,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Override
     @Metric(enable = true, type = "latency", unit = "percentage")
     public float getErrorPercentage() {
-        state.update();
-        final MonitorState stableState = state.stable();
-        if (stableState.errorCount.get() <= 0 || stableState.requestCount.get() <= 0) {
-            return 0;
-        } else {
-            return (float) ((((double) stableState.errorCount.get()) / stableState.requestCount.get()) * MULTIPLY);
-        }
+        return state.snapshot().errorPercentage;
     }
 
     /*
@@ -407,26 +512,33 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @MetricCheck(enable = true, type = "ratio", expression = "Rejected / Requests", maxDeviation = PCT005)
     public long getRejected() {
-        state.update();
-        return state.stable().rejected.get();
+        return state.snapshot().rejected;
     }
 
     /**
      * Increment number of rejected requests.
      */
     public void incrementRejected() {
-        final MonitorState current = state.current();
-        current.rejected.incrementAndGet();
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.rejected.incrementAndGet();
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
      * @param maxTime Maximum time recorded by request in last interval.
      */
     public void setMaxTime(final long maxTime) {
-        final MonitorState current = state.current();
-        current.maxTime.addAndGet(maxTime);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.maxTime.addAndGet(maxTime);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -437,46 +549,81 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      *
      */
     public void setProcessingTime(final long processingTime, final int count) {
-        final MonitorState current = state.current();
-        current.latency.addAndGet(processingTime);
-        current.latencyCount.addAndGet(count);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.latency.addAndGet(processingTime);
+            current.latencyCount.addAndGet(count);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
+    }
+
+    /**
+     * Records the latency of one request.
+     *
+     * @param latency request latency in milliseconds
+     */
+    public void recordLatency(final long latency) {
+        final MonitorState current = state.beginWrite();
+        try {
+            current.latencyHistogram.record(latency);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
      * @param requestcount Total request count in last interval.
      */
     public void setRequestCount(final int requestcount) {
-        final MonitorState current = state.current();
-        current.requestCount.addAndGet(requestcount);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.requestCount.addAndGet(requestcount);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
      * @param errorCount Total error count in last interval.
      */
     public void setErrorCount(final int errorCount) {
-        final MonitorState current = state.current();
-        current.errorCount.addAndGet(errorCount);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.errorCount.addAndGet(errorCount);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
      * @param bytesReceived Total bytes received in last interval.
      */
     public void setBytesReceived(final long bytesReceived) {
-        final MonitorState current = state.current();
-        current.bytesReceived.addAndGet(bytesReceived);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.bytesReceived.addAndGet(bytesReceived);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
      * @param bytesSent Total bytes send in last interval.
      */
     public void setBytesSent(final long bytesSent) {
-        final MonitorState current = state.current();
-        current.bytesSent.addAndGet(bytesSent);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.bytesSent.addAndGet(bytesSent);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -484,9 +631,13 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param response1xx Number of responses with a 1xx status
      */
     public void setResponses1xx(final int response1xx) {
-        final MonitorState current = state.current();
-        current.response1xx.addAndGet(response1xx);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.response1xx.addAndGet(response1xx);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -494,9 +645,13 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param response2xx Number of responses with a 2xx status
      */
     public void setResponses2xx(final int response2xx) {
-        final MonitorState current = state.current();
-        current.response2xx.addAndGet(response2xx);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.response2xx.addAndGet(response2xx);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -504,9 +659,13 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param response3xx Number of responses with a 3xx status
      */
     public void setResponses3xx(final int response3xx) {
-        final MonitorState current = state.current();
-        current.response3xx.addAndGet(response3xx);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.response3xx.addAndGet(response3xx);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -514,10 +673,14 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param response4xx Number of responses with a 4xx status
      */
     public void setResponses4xx(final int response4xx) {
-        final MonitorState current = state.current();
-        current.response4xx.set(response4xx);
-        current.errorCount.addAndGet(response4xx);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.response4xx.set(response4xx);
+            current.errorCount.addAndGet(response4xx);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -525,10 +688,14 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param response5xx Number of responses with a 1xx status
      */
     public void setResponses5xx(final int response5xx) {
-        final MonitorState current = state.current();
-        current.response5xx.set(response5xx);
-        current.errorCount.addAndGet(response5xx);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.response5xx.set(response5xx);
+            current.errorCount.addAndGet(response5xx);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -536,9 +703,13 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param maxActiveRequests Number of max active requests
      */
     public void setMaxActiveRequests(final int maxActiveRequests) {
-        final MonitorState current = state.current();
-        current.maxActiveRequests.set(maxActiveRequests);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.maxActiveRequests.set(maxActiveRequests);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /**
@@ -546,9 +717,13 @@ public class ContainerMonitor implements ContainerMonitorMBean {
      * @param activeRequests Number of active requests
      */
     public void setActiveRequests(final int activeRequests) {
-        final MonitorState current = state.current();
-        current.activeRequests.addAndGet(activeRequests);
-        current.lastWrite.set(System.currentTimeMillis());
+        final MonitorState current = state.beginWrite();
+        try {
+            current.activeRequests.addAndGet(activeRequests);
+            current.lastWrite.set(CLOCK.currentTimeMillis());
+        } finally {
+            state.endWrite(current);
+        }
     }
 
     /*
@@ -559,8 +734,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @Override
     public int getResponses1xx() {
-        state.update();
-        return state.stable().response1xx.get();
+        return state.snapshot().response1xx;
     }
 
     /*
@@ -571,8 +745,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @Override
     public int getResponses2xx() {
-        state.update();
-        return state.stable().response2xx.get();
+        return state.snapshot().response2xx;
     }
 
     /*
@@ -583,8 +756,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @Override
     public int getResponses3xx() {
-        state.update();
-        return state.stable().response3xx.get();
+        return state.snapshot().response3xx;
     }
 
     /*
@@ -596,8 +768,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @MetricCheck(enable = true, type = "ratio", expression = "Responses4xx / Requests", maxDeviation = PCT005)
     @Override
     public int getResponses4xx() {
-        state.update();
-        return state.stable().response4xx.get();
+        return state.snapshot().response4xx;
     }
 
     /*
@@ -609,8 +780,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @MetricCheck(enable = true, type = "ratio", expression = "Responses5xx / Requests", maxDeviation = PCT005)
     @Override
     public int getResponses5xx() {
-        state.update();
-        return state.stable().response5xx.get();
+        return state.snapshot().response5xx;
     }
 
     /*
@@ -621,8 +791,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @Override
     public int getActiveRequests() {
-        state.update();
-        return state.stable().activeRequests.get();
+        return state.snapshot().activeRequests;
 
     }
 
@@ -634,8 +803,7 @@ public class ContainerMonitor implements ContainerMonitorMBean {
     @Metric(enable = true, type = "count")
     @Override
     public int getMaxActiveRequests() {
-        state.update();
-        return state.stable().maxActiveRequests.get();
+        return state.snapshot().maxActiveRequests;
     }
 
     /**
@@ -104,4 +104,29 @@ public interface ContainerMonitorMBean extends BaseMonitor {
      */
     long getLatency();
 
-}
\ No newline at end of file
+
+    /**
+     * @return Median request latency in milliseconds in last interval.
+     */
+    long getLatencyP50();
+
+    /**
+     * @return 90th percentile request latency in milliseconds in last interval.
+     */
+    long getLatencyP90();
+
+    /**
+     * @return 99th percentile request latency in milliseconds in last interval.
+     */
+    long getLatencyP99();
+
+    /**
+     * @return 99.9th percentile request latency in milliseconds in last interval.
+     */
+    long getLatencyP999();
+
+    /**
+     * @return Maximum request latency in milliseconds in last interval.
+     */
+    long getLatencyMax();
+}
@@ -77,6 +77,9 @@ public class ContainerMonitorTest {
         monitor.setResponses5xx(5);
         monitor.setActiveRequests(10);
         monitor.setMaxActiveRequests(1);
+        for (int i = 1; i <= 100; i++) {
+            monitor.recordLatency(i);
+        }
         monitor.setBeanName(directory, beanName);
      // Assert if monitor bean registration exists.
         Assert.assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName(beanName)), "The Bean should be registered.");
@@ -98,6 +101,11 @@ public class ContainerMonitorTest {
         Assert.assertEquals(monitor.getResponses5xx(), 5);
         Assert.assertEquals(monitor.getMaxActiveRequests(), 1);
         Assert.assertEquals(monitor.getActiveRequests(), 10);
+        Assert.assertEquals(monitor.getLatencyP50(), 51);
+        Assert.assertEquals(monitor.getLatencyP90(), 91);
+        Assert.assertEquals(monitor.getLatencyP99(), 99);
+        Assert.assertEquals(monitor.getLatencyP999(), 100);
+        Assert.assertEquals(monitor.getLatencyMax(), 100);
 
         monitor.flip();
 
@@ -116,6 +124,8 @@ public class ContainerMonitorTest {
         Assert.assertEquals(monitor.getResponses5xx(), 0);
         Assert.assertEquals(monitor.getMaxActiveRequests(), 0);
         Assert.assertEquals(monitor.getActiveRequests(), 0);
+        Assert.assertEquals(monitor.getLatencyP99(), 0);
+        Assert.assertEquals(monitor.getLatencyMax(), 0);
 
         Assert.assertNotEquals(monitor.getLastUpdate(), 0);
         Assert.assertNotEquals(monitor.getExpireTime(), 0);
@@ -0,0 +1,124 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Monitor that counts how often it is created and registered, used by directory tests.
+ *
+ */
+public class CountingMonitor implements BaseMonitor {
+    /** Number of setBeanName calls per bean name. */
+    private static final ConcurrentHashMap<String, AtomicInteger> REGISTRATIONS = new ConcurrentHashMap<>();
+    /** Number of instances created. */
+    private static final AtomicInteger CREATED = new AtomicInteger();
+
+    /** Expire time. */
+    private final TimeValue expire;
+    /** Window time. */
+    private final TimeValue window;
+    /** Bean name. */
+    private volatile String beanName;
+    /** Directory holding this monitor. */
+    private volatile MonitorDirectory<?> directory;
+    /** Last write time. */
+    private volatile long lastWrite = System.currentTimeMillis();
+
+    /**
+     * @param window window time
+     * @param expire expire time
+     */
+    public CountingMonitor(final TimeValue window, final TimeValue expire) {
+        this.window = window;
+        this.expire = expire;
+        CREATED.incrementAndGet();
+    }
+
+    /**
+     * @param beanName bean name
+     * @return number of registrations for the bean name
+     */
+    public static int getRegistrations(final String beanName) {
+        final AtomicInteger count = REGISTRATIONS.get(beanName);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return number of instances created
+     */
+    public static int getCreated() {
+        return CREATED.get();
+    }
+
+    @Override
+    public void setBeanName(final MonitorDirectory<?> directory, final String beanName) {
+        this.directory = directory;
+        this.beanName = beanName;
+        REGISTRATIONS.computeIfAbsent(beanName, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * @return bean name
+     */
+    public String getBeanName() {
+        return beanName;
+    }
+
+    /**
+     * @param lastWrite last write time
+     */
+    public void setLastWrite(final long lastWrite) {
+        this.lastWrite = lastWrite;
+    }
+
+    @Override
+    public long getWindow() {
+        return window.toMillis();
+    }
+
+    @Override
+    public long getUptime() {
+        return 0;
+    }
+
+    @Override
+    public long getLastUpdate() {
+        return 0;
+    }
+
+    @Override
+    public long getLastWrite() {
+        return lastWrite;
+    }
+
+    @Override
+    public long getExpireTime() {
+        return expire.toMillis();
+    }
+
+    @Override
+    public void unRegisterMBean() {
+        REGISTRATIONS.get(beanName).decrementAndGet();
+        directory.removeMBean(beanName);
+    }
+}
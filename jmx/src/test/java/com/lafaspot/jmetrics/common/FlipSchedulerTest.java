@@ -0,0 +1,133 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Test for FlipScheduler.
+ *
+ */
+public class FlipSchedulerTest {
+
+    /**
+     * State counting the writes of its window.
+     */
+    private static class CountState implements MonitorStateHandler.State<CountState> {
+        /** Count in this window. */
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void reset(final CountState stable) {
+            count.set(0);
+        }
+    }
+
+    /**
+     * Boundaries are multiples of the window.
+     */
+    @Test
+    public void nextBoundary() {
+        Assert.assertEquals(FlipScheduler.nextBoundary(0, 1000), 1000);
+        Assert.assertEquals(FlipScheduler.nextBoundary(999, 1000), 1000);
+        Assert.assertEquals(FlipScheduler.nextBoundary(1000, 1000), 2000);
+        Assert.assertEquals(FlipScheduler.nextBoundary(1234567, 60000), 1260000);
+    }
+
+    /**
+     * An idle handler is flipped at aligned boundaries and its snapshot follows without reads or writes.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void flipsAtBoundaries() throws InterruptedException {
+        final FlipScheduler scheduler = new FlipScheduler(new TimeValue(1, TimeUnit.MILLISECONDS), 8);
+        try {
+            final SnapshotStateHandler<CountState, Long> state = new SnapshotStateHandler<CountState, Long>(new CountState(), new CountState(),
+                    new TimeValue(50, TimeUnit.MILLISECONDS), (s, start, end) -> s.count.get());
+            final CountState current = state.beginWrite();
+            current.count.addAndGet(3);
+            state.endWrite(current);
+            scheduler.schedule(state);
+            awaitFlips(scheduler, 1);
+            Assert.assertEquals(state.snapshot().longValue(), 3);
+            Assert.assertEquals(state.getLastUpdate() % 50, 0);
+            final long first = state.getLastUpdate();
+            awaitFlips(scheduler, 3);
+            Assert.assertEquals(state.snapshot().longValue(), 0);
+            Assert.assertEquals(state.getWindowStart(0) % 50, 0);
+            Assert.assertTrue(state.getLastUpdate() - first >= 100);
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * A cancelled handler is no longer flipped.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void cancel() throws InterruptedException {
+        final FlipScheduler scheduler = new FlipScheduler(new TimeValue(1, TimeUnit.MILLISECONDS), 8);
+        try {
+            final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(), new CountState(),
+                    new TimeValue(20, TimeUnit.MILLISECONDS));
+            final FlipScheduler.Registration registration = scheduler.schedule(state);
+            awaitFlips(scheduler, 1);
+            registration.cancel();
+            Assert.assertTrue(registration.isCancelled());
+            // a flip may be in progress
+            Thread.sleep(5);
+            final long lastUpdate = state.getLastUpdate();
+            Thread.sleep(100);
+            Assert.assertEquals(state.getLastUpdate(), lastUpdate);
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * A closed scheduler rejects handlers.
+     */
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void closed() {
+        final FlipScheduler scheduler = new FlipScheduler(new TimeValue(1, TimeUnit.MILLISECONDS), 8);
+        scheduler.close();
+        scheduler.schedule(new MonitorStateHandler<CountState>(new CountState(), new CountState()));
+    }
+
+    /**
+     * @param scheduler the scheduler
+     * @param flips number of flips to wait for
+     * @throws InterruptedException when interrupted
+     */
+    private static void awaitFlips(final FlipScheduler scheduler, final long flips) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+        while (scheduler.getFlips() < flips) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline, "No flip");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for LatencyHistogram.
+ *
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Percentiles stay within the relative error of the precision.
+     */
+    @Test
+    public void percentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100000; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getCount(), 100000);
+        Assert.assertEquals(histogram.getMax(), 100000);
+        Assert.assertEquals(histogram.getMean(), 50000.5, 0.001);
+        final double error = 1.0 / (1 << histogram.getPrecision());
+        for (final double percentile : new double[] {50, 90, 99, 99.9}) {
+            final double expected = percentile * 1000;
+            final long actual = histogram.getValueAtPercentile(percentile);
+            Assert.assertTrue(actual >= expected && actual <= expected * (1 + error), percentile + ": " + actual);
+        }
+        Assert.assertEquals(histogram.getValueAtPercentile(100), 100000);
+    }
+
+    /**
+     * Small values are exact, negative values count as 0 and huge values land in the last bucket.
+     */
+    @Test
+    public void bounds() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(histogram.getValueAtPercentile(99), 0);
+        for (int i = 0; i < 32; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(histogram.getValueAtPercentile(50), 15);
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals(histogram.getCount(), 34);
+        Assert.assertEquals(histogram.getValueAtPercentile(0), 0);
+        Assert.assertEquals(histogram.getValueAtPercentile(100), (1L << 36) - 1);
+    }
+
+    /**
+     * Merging adds up the counts, reset clears the histogram.
+     */
+    @Test
+    public void mergeAndReset() {
+        final LatencyHistogram a = new LatencyHistogram();
+        final LatencyHistogram b = new LatencyHistogram();
+        for (int i = 0; i < 100; i++) {
+            a.record(10);
+            b.record(1000);
+        }
+        a.merge(b);
+        Assert.assertEquals(a.getCount(), 200);
+        Assert.assertEquals(a.getMax(), 1000);
+        Assert.assertEquals(a.getValueAtPercentile(50), 10);
+        Assert.assertTrue(a.getValueAtPercentile(99) >= 1000);
+        Assert.assertEquals(b.getCount(), 100);
+
+        a.reset(b);
+        Assert.assertEquals(a.getCount(), 0);
+        Assert.assertEquals(a.getMax(), 0);
+        Assert.assertEquals(a.getMean(), 0.0);
+    }
+
+    /**
+     * Histograms of different precision cannot be merged.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void mergePrecisionMismatch() {
+        new LatencyHistogram(4).merge(new LatencyHistogram(5));
+    }
+}
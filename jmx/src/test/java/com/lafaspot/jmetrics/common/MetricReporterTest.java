@@ -0,0 +1,308 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Test for MetricReporter and the sinks.
+ *
+ */
+public class MetricReporterTest {
+    /** Number of numeric metrics of ContainerMonitor. */
+    private static final int METRICS = 20;
+
+    /**
+     * @param name monitor name
+     * @return directory with one monitor which had 42 requests in the last window
+     */
+    private static MonitorDirectory<ContainerMonitor> directory(final String name) {
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        final ContainerMonitor monitor = directory.getMonitor(name);
+        monitor.setRequestCount(42);
+        monitor.flip();
+        return directory;
+    }
+
+    /**
+     * @param counter counter to wait for
+     * @param expected value to reach
+     * @throws InterruptedException when interrupted
+     */
+    private static void waitFor(final LongSupplier counter, final long expected) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (counter.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(counter.getAsLong() >= expected, "counter " + counter.getAsLong());
+    }
+
+    /**
+     * @param file file
+     * @return number of lines of the file
+     */
+    private static long lineCount(final Path file) {
+        try {
+            return Files.readAllLines(file, StandardCharsets.UTF_8).size();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Lines are batched into frames no larger than the frame size and appended to the file.
+     *
+     * @throws Exception from the file
+     */
+    @Test
+    public void fileSink() throws Exception {
+        final String id = UUID.randomUUID().toString();
+        final Path file = Files.createTempFile("metrics", ".txt");
+        final MetricReporter reporter = new MetricReporter(new FileMetricSink(file), "app", 16, 200);
+        try {
+            reporter.addDirectory(directory("com.lafaspot.test:type=Reporter,id=" + id));
+            reporter.report();
+            waitFor(() -> lineCount(file), METRICS);
+            Assert.assertTrue(reporter.getSentFrames() > 1);
+        } finally {
+            reporter.close();
+        }
+        final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(lines.size(), METRICS);
+        Assert.assertTrue(lines.contains("app.com.lafaspot.test_type=Reporter,id=" + id + ".Requests:42|g"), lines.toString());
+        Assert.assertEquals(reporter.getDroppedFrames(), 0);
+        Assert.assertEquals(reporter.getFailedFrames(), 0);
+    }
+
+    /**
+     * Each frame is one datagram no larger than the frame size.
+     *
+     * @throws Exception from the channels
+     */
+    @Test
+    public void statsdSink() throws Exception {
+        final DatagramChannel server = DatagramChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final String id = UUID.randomUUID().toString();
+            try (MetricReporter reporter = new MetricReporter(new StatsdMetricSink((InetSocketAddress) server.getLocalAddress()), "")) {
+                reporter.addDirectory(directory("statsd " + id));
+                reporter.report();
+                final List<String> lines = new ArrayList<>();
+                final ByteBuffer datagram = ByteBuffer.allocate(MetricReporter.DEFAULT_FRAME_SIZE + 1);
+                while (lines.size() < METRICS) {
+                    datagram.clear();
+                    server.receive(datagram);
+                    datagram.flip();
+                    Assert.assertTrue(datagram.remaining() <= MetricReporter.DEFAULT_FRAME_SIZE);
+                    final String text = StandardCharsets.UTF_8.decode(datagram).toString();
+                    Assert.assertTrue(text.endsWith("\n"));
+                    for (final String line : text.split("\n")) {
+                        lines.add(line);
+                    }
+                }
+                Assert.assertTrue(lines.contains("statsd_" + id + ".Requests:42|g"), lines.toString());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Frames are written to the connection, which is opened on the first frame.
+     *
+     * @throws Exception from the sockets
+     */
+    @Test
+    public void socketSink() throws Exception {
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final String id = UUID.randomUUID().toString();
+            final InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+            try (MetricReporter reporter = new MetricReporter(new SocketMetricSink(address), "agent")) {
+                reporter.addDirectory(directory("socket-" + id));
+                reporter.report();
+                try (Socket socket = server.accept();
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                    final List<String> lines = new ArrayList<>();
+                    while (lines.size() < METRICS) {
+                        lines.add(reader.readLine());
+                    }
+                    Assert.assertTrue(lines.contains("agent.socket-" + id + ".Requests:42|g"), lines.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * A blocked sink does not block reports, frames which do not fit in the queue are dropped and counted.
+     *
+     * @throws Exception from the sink
+     */
+    @Test
+    public void slowSinkDropsFrames() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final MetricSink blocked = new MetricSink() {
+            @Override
+            public void send(final ByteBuffer frame) {
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (MetricReporter reporter = new MetricReporter(blocked, "slow", 1, 100)) {
+            reporter.addDirectory(directory(UUID.randomUUID().toString()));
+            reporter.report();
+            Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+            final long start = System.nanoTime();
+            for (int i = 0; i < 10; i++) {
+                reporter.report();
+            }
+            Assert.assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 5);
+            Assert.assertEquals(reporter.getQueuedFrames(), 1);
+            Assert.assertTrue(reporter.getDroppedFrames() >= 10 * METRICS - 2, "dropped " + reporter.getDroppedFrames());
+            release.countDown();
+            waitFor(reporter::getSentFrames, 2);
+        }
+    }
+
+    /**
+     * Close does not interrupt a send in progress, the sink is closed by the sender once the send is done.
+     *
+     * @throws Exception from the sink
+     */
+    @Test
+    public void closeAfterSend() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch sinkClosed = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        final AtomicBoolean closedWhileSending = new AtomicBoolean();
+        final MetricSink blocked = new MetricSink() {
+            private volatile boolean inSend;
+
+            @Override
+            public void send(final ByteBuffer frame) {
+                inSend = true;
+                sending.countDown();
+                try {
+                    release.await();
+                } catch (final InterruptedException e) {
+                    interrupted.set(true);
+                }
+                inSend = false;
+            }
+
+            @Override
+            public void close() {
+                closedWhileSending.set(inSend);
+                sinkClosed.countDown();
+            }
+        };
+        final MetricReporter reporter = new MetricReporter(blocked, "close", 4, 100);
+        reporter.addDirectory(directory(UUID.randomUUID().toString()));
+        reporter.report();
+        Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+        reporter.close();
+        Assert.assertEquals(sinkClosed.getCount(), 1);
+        release.countDown();
+        Assert.assertTrue(sinkClosed.await(5, TimeUnit.SECONDS));
+        Assert.assertFalse(interrupted.get());
+        Assert.assertFalse(closedWhileSending.get());
+        Assert.assertEquals(reporter.getSentFrames(), 1);
+    }
+
+    /**
+     * Started reporters report after each period boundary, only monitors whose window moved are reported again. Lines larger than a frame
+     * are dropped.
+     *
+     * @throws Exception from the sink
+     */
+    @Test
+    public void scheduled() throws Exception {
+        final MetricSink discard = new MetricSink() {
+            @Override
+            public void send(final ByteBuffer frame) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        try (MetricReporter reporter = new MetricReporter(discard, "scheduled", 16, 10)) {
+            final String name = UUID.randomUUID().toString();
+            final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class,
+                    new TimeValue(1, TimeUnit.MINUTES), new TimeValue(1, TimeUnit.MINUTES));
+            directory.getMonitor(name).setRequestCount(42);
+            // the window starts must differ by more than the clock resolution
+            Thread.sleep(50);
+            directory.getMonitor(name).flip();
+            reporter.addDirectory(directory);
+            reporter.start(new TimeValue(20, TimeUnit.MILLISECONDS));
+            waitFor(reporter::getDroppedLines, METRICS);
+            Thread.sleep(100);
+            Assert.assertEquals(reporter.getDroppedLines(), METRICS, "Window reported twice");
+            directory.getMonitor(name).flip();
+            waitFor(reporter::getDroppedLines, 2 * METRICS);
+            Assert.assertEquals(reporter.getSentFrames(), 0);
+        }
+        Assert.assertEquals(MetricReporter.sanitize("a:b|c@d#e f\ng"), "a_b_c_d_e_f_g");
+    }
+
+    /**
+     * Scheduled reports run shortly after the aligned boundaries of the period.
+     */
+    @Test
+    public void delayToReport() {
+        Assert.assertEquals(MetricReporter.delayToReport(1005, 100), 145);
+        Assert.assertEquals(MetricReporter.delayToReport(1000, 100), 150);
+        Assert.assertEquals(MetricReporter.delayToReport(1099, 100), 51);
+    }
+}
@@ -17,19 +17,39 @@
  */
 package com.lafaspot.jmetrics.common;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectInstance;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.lafaspot.jmetrics.annotation.MetricClassIndex;
+
 /**
  * Test Monitor CompositeData extractor.
  *
@@ -58,6 +78,7 @@ public class MonitorCompositeDataTest {
         blacklistedPackages.add("org.apache");
         blacklistedPackages.add("io.netty");
         blacklistedPackages.add("com.google");
+        blacklistedPackages.add("com.lafaspot.jmetrics.common.processor");
         final MonitorScanner monitorDataScanner = new MonitorScanner(whitelistedPackages, blacklistedPackages);
         monitorDataScanner.registerMBean("com.lafaspot.jmetrics.common");
 
@@ -73,7 +94,7 @@ public class MonitorCompositeDataTest {
             Assert.assertEquals(vipMonitorCompositeData.getCompositeType().getDescription(), "ContainerMonitor");
 
             Set<String> methods = vipMonitorCompositeData.getCompositeType().keySet();
-            Assert.assertEquals(methods.size(), 15, "Method number not matched");
+            Assert.assertEquals(methods.size(), 20, "Method number not matched");
             Assert.assertTrue(methods.contains("getMaxTime"));
             Assert.assertTrue(methods.contains("getLatency"));
             Assert.assertTrue(methods.contains("getRequests"));
@@ -122,4 +143,243 @@ public class MonitorCompositeDataTest {
             Assert.assertEquals(((CompositeData) vipMonitorCompositeData.get("getMaxActiveRequests")).get("type"), "count", "metric type not match");
         }
     }
+
+    /**
+     * The index lists the monitors, classes outside the package lists are skipped and without an index the class path is scanned.
+     *
+     * @throws Exception from creating Composite
+     */
+    @Test
+    public void testScanWithAndWithoutIndex() throws Exception {
+        final List<String> whitelistedPackages = Collections.singletonList("com.lafaspot.jmetrics");
+        final List<String> blacklistedPackages = Collections.singletonList("com.lafaspot.jmetrics.common.processor");
+        Assert.assertNotNull(MetricClassIndex.read(Thread.currentThread().getContextClassLoader()));
+        final CompositeData indexed = new MonitorScanner(whitelistedPackages, blacklistedPackages).getAllMonitorCompositeData();
+        Assert.assertEquals(indexed.getCompositeType().keySet(), Collections.singleton(ContainerMonitor.class.getName()));
+
+        final ClassLoader original = Thread.currentThread().getContextClassLoader();
+        // hides the index from the scanner
+        final ClassLoader noIndex = new ClassLoader(original) {
+            @Override
+            public Enumeration<URL> getResources(final String name) throws IOException {
+                return MetricClassIndex.LOCATION.equals(name) ? Collections.<URL>emptyEnumeration() : super.getResources(name);
+            }
+        };
+        Thread.currentThread().setContextClassLoader(noIndex);
+        try {
+            Assert.assertNull(MetricClassIndex.read(noIndex));
+            final CompositeData scanned = new MonitorScanner(whitelistedPackages, blacklistedPackages).getAllMonitorCompositeData();
+            Assert.assertEquals(scanned.getCompositeType().keySet(), indexed.getCompositeType().keySet());
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    /**
+     * Lazy scanners scan on first use, async scanners in the background, both with the class loader of the creating thread.
+     */
+    @Test
+    public void testLazyAndAsyncScan() {
+        final List<String> whitelistedPackages = Collections.singletonList("com.lafaspot.jmetrics");
+        final List<String> blacklistedPackages = Collections.singletonList("com.lafaspot.jmetrics.common.processor");
+        final MonitorScanner lazy = new MonitorScanner(whitelistedPackages, blacklistedPackages, MonitorScanner.ScanMode.LAZY);
+        Assert.assertEquals(lazy.getScanDuration(), -1);
+        Assert.assertEquals(lazy.getMonitorClassCount(), 0);
+
+        final MonitorScanner async = new MonitorScanner(whitelistedPackages, blacklistedPackages, MonitorScanner.ScanMode.ASYNC);
+        final ClassLoader original = Thread.currentThread().getContextClassLoader();
+        // a reader with another context class loader must not change what is found
+        Thread.currentThread().setContextClassLoader(new ClassLoader(null) { });
+        try {
+            for (final MonitorScanner scanner : new MonitorScanner[] {lazy, async}) {
+                final CompositeData data = scanner.getAllMonitorCompositeData();
+                Assert.assertEquals(data.getCompositeType().keySet(), Collections.singleton(ContainerMonitor.class.getName()));
+                Assert.assertTrue(scanner.getScanDuration() >= 0);
+                Assert.assertEquals(scanner.getMonitorClassCount(), 1);
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    /**
+     * A rescan merges the monitors of a class loader added later and skips what was scanned before, with and without index.
+     *
+     * @throws Exception from compiling the plugin
+     */
+    @Test
+    public void testRescan() throws Exception {
+        final List<String> whitelistedPackages = Collections.singletonList("com.lafaspot.jmetrics");
+        final List<String> blacklistedPackages = Collections.singletonList("com.lafaspot.jmetrics.common.processor");
+        final MonitorScanner indexed = new MonitorScanner(whitelistedPackages, blacklistedPackages);
+        Assert.assertEquals(indexed.rescan(), 0);
+        final ClassLoader original = Thread.currentThread().getContextClassLoader();
+        indexed.addClassLoader(new URLClassLoader(new URL[] {compilePlugin(true).toUri().toURL()}, original));
+        Assert.assertEquals(indexed.rescan(), 1);
+        Assert.assertEquals(indexed.rescan(), 0);
+        Assert.assertEquals(indexed.getMonitorClassCount(), 2);
+        Assert.assertEquals(indexed.getAllMonitorCompositeData().getCompositeType().keySet(),
+                new HashSet<>(Arrays.asList(ContainerMonitor.class.getName(), "com.lafaspot.jmetrics.plugin.PluginMonitor")));
+
+        // a plugin built without the processor is scanned next to the indexed class path
+        final MonitorScanner mixed = new MonitorScanner(whitelistedPackages, blacklistedPackages);
+        Assert.assertEquals(mixed.rescan(), 0);
+        mixed.addClassLoader(new URLClassLoader(new URL[] {compilePlugin(false).toUri().toURL()}, original));
+        Assert.assertEquals(mixed.rescan(), 1);
+        Assert.assertEquals(mixed.rescan(), 0);
+        Assert.assertEquals(mixed.getAllMonitorCompositeData().getCompositeType().keySet(),
+                indexed.getAllMonitorCompositeData().getCompositeType().keySet());
+
+        // hides the index from the scanner
+        final ClassLoader noIndex = new ClassLoader(original) {
+            @Override
+            public Enumeration<URL> getResources(final String name) throws IOException {
+                return MetricClassIndex.LOCATION.equals(name) ? Collections.<URL>emptyEnumeration() : super.getResources(name);
+            }
+        };
+        Thread.currentThread().setContextClassLoader(noIndex);
+        try {
+            final MonitorScanner scanned = new MonitorScanner(whitelistedPackages, blacklistedPackages);
+            Assert.assertEquals(scanned.rescan(), 0);
+            scanned.addClassLoader(new URLClassLoader(new URL[] {compilePlugin(false).toUri().toURL()}, noIndex));
+            Assert.assertEquals(scanned.rescan(), 1);
+            Assert.assertEquals(scanned.rescan(), 0);
+            Assert.assertEquals(scanned.getAllMonitorCompositeData().getCompositeType().keySet(),
+                    indexed.getAllMonitorCompositeData().getCompositeType().keySet());
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    /**
+     * The root of an index is the jar or class directory holding it.
+     *
+     * @throws Exception from the URLs
+     */
+    @Test
+    public void testIndexRoot() throws Exception {
+        Assert.assertEquals(MetricClassIndex.root(new URL("jar:file:/opt/app/plugin.jar!/" + MetricClassIndex.LOCATION)),
+                new File("/opt/app/plugin.jar"));
+        Assert.assertEquals(MetricClassIndex.root(new URL("file:/opt/app/classes/" + MetricClassIndex.LOCATION)), new File("/opt/app/classes"));
+        Assert.assertNull(MetricClassIndex.root(new URL("http://localhost/" + MetricClassIndex.LOCATION)));
+    }
+
+    /**
+     * Parallel and sequential builds give the same CompositeData.
+     *
+     * @throws Exception from creating Composite
+     */
+    @Test
+    public void testParallelBuild() throws Exception {
+        final MonitorScanner scanner = new MonitorScanner(Collections.<String>emptyList(), Collections.<String>emptyList(),
+                MonitorScanner.ScanMode.LAZY);
+        final List<Class<?>> monitorClasses = Arrays.<Class<?>>asList(ContainerMonitor.class,
+                com.lafaspot.jmetrics.common.processor.RequestMetricsMonitor.class);
+        final Map<String, CompositeData> sequential = scanner.buildMetricClassComposites(monitorClasses, false);
+        Assert.assertEquals(sequential.size(), 2);
+        Assert.assertEquals(scanner.buildMetricClassComposites(monitorClasses, true), sequential);
+    }
+
+    /**
+     * Builders of the same monitor share the CompositeType, all metrics share the method CompositeType.
+     *
+     * @throws Exception from creating Composite
+     */
+    @Test
+    public void testSharedTypes() throws Exception {
+        final CompositeData first = new MonitorCompositeDataBuilder(ContainerMonitor.class).getMetricClassData();
+        final CompositeData second = new MonitorCompositeDataBuilder(ContainerMonitor.class).getMetricClassData();
+        Assert.assertNotSame(first, second);
+        Assert.assertSame(first.getCompositeType(), second.getCompositeType());
+        Assert.assertEquals(first, second);
+        final CompositeData other = new MonitorCompositeDataBuilder(com.lafaspot.jmetrics.common.processor.RequestMetricsMonitor.class)
+                .getMetricClassData();
+        final String firstKey = first.getCompositeType().keySet().iterator().next();
+        final String otherKey = other.getCompositeType().keySet().iterator().next();
+        Assert.assertSame(first.getCompositeType().getType(firstKey), other.getCompositeType().getType(otherKey));
+        Assert.assertSame(first.get(firstKey), second.get(firstKey));
+    }
+
+    /**
+     * The cache is cleared once full, later types are shared again.
+     *
+     * @throws Exception from creating the types
+     */
+    @Test
+    public void testCacheBound() throws Exception {
+        final CompositeType first = boundType(0);
+        Assert.assertSame(boundType(0), first);
+        for (int i = 1; i <= OpenTypeCache.MAX_ENTRIES; i++) {
+            boundType(i);
+        }
+        final CompositeType again = boundType(0);
+        Assert.assertNotSame(again, first);
+        Assert.assertEquals(again, first);
+        Assert.assertSame(boundType(0), again);
+    }
+
+    /**
+     * @param i index of the type
+     * @return shared CompositeType named after the index
+     * @throws OpenDataException when the type is not valid
+     */
+    private static CompositeType boundType(final int i) throws OpenDataException {
+        return OpenTypeCache.compositeType("bound-" + i, "bound", new String[] {"value"}, new String[] {"value"},
+                new OpenType<?>[] {SimpleType.STRING});
+    }
+
+    /**
+     * Removing the last monitor of a class directory empties its index, the directory is no longer scanned.
+     *
+     * @throws Exception from compiling the plugin
+     */
+    @Test
+    public void testIndexEmptied() throws Exception {
+        final Path dir = compilePlugin(true);
+        final URL index = dir.resolve(MetricClassIndex.LOCATION).toUri().toURL();
+        Assert.assertEquals(MetricClassIndex.read(index), Collections.singleton("com.lafaspot.jmetrics.plugin.PluginMonitor"));
+        compilePlugin(dir, true, false);
+        Assert.assertEquals(MetricClassIndex.read(index), Collections.emptySet());
+    }
+
+    /**
+     * Compiles a plugin monitor to a new class directory.
+     *
+     * @param index true to run the annotation processors, which write the index
+     * @return class directory
+     * @throws IOException from writing the source
+     */
+    private Path compilePlugin(final boolean index) throws IOException {
+        final Path dir = Files.createTempDirectory("plugin");
+        compilePlugin(dir, index, true);
+        return dir;
+    }
+
+    /**
+     * Compiles the plugin to a class directory.
+     *
+     * @param dir class directory
+     * @param index true to run the annotation processors, which write the index
+     * @param annotated false to compile the plugin without its @MetricClass annotation
+     * @throws IOException from writing the source
+     */
+    private void compilePlugin(final Path dir, final boolean index, final boolean annotated) throws IOException {
+        final Path source = dir.resolve("PluginMonitor.java");
+        Files.write(source, Arrays.asList("package com.lafaspot.jmetrics.plugin;",
+                annotated ? "@com.lafaspot.jmetrics.annotation.MetricClass(name = \"Plugin\")" : "",
+                "public class PluginMonitor {",
+                "    @com.lafaspot.jmetrics.annotation.Metric",
+                "    public long getCalls() {",
+                "        return 0;",
+                "    }",
+                "}"), StandardCharsets.UTF_8);
+        final List<String> options = new ArrayList<>(Arrays.asList("-d", dir.toString(), "-cp", System.getProperty("java.class.path")));
+        if (!index) {
+            options.add("-proc:none");
+        }
+        options.add(source.toString());
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertEquals(compiler.run(null, null, null, options.toArray(new String[0])), 0);
+        Assert.assertEquals(Files.exists(dir.resolve(MetricClassIndex.LOCATION)), index);
+    }
 }
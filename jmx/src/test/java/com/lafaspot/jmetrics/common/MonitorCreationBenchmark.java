@@ -0,0 +1,109 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Monitor creations per second with the reflective constructor lookup MonitorDirectory used to do per creation, a constructor handle resolved
+ * once and a {@link MonitorFactory}.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorCreationBenchmark {
+    /** Window. */
+    private final TimeValue window = new TimeValue(5, TimeUnit.MINUTES);
+    /** Expire time. */
+    private final TimeValue expire = new TimeValue(10, TimeUnit.MINUTES);
+    /** Factory. */
+    private final MonitorFactory<ContainerMonitor> factory = ContainerMonitor::new;
+    /** Constructor handle. */
+    private MethodHandle constructor;
+
+    /**
+     * Resolves the constructor handle.
+     *
+     * @throws ReflectiveOperationException when the constructor is not found
+     */
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        constructor = MethodHandles.publicLookup()
+                .findConstructor(ContainerMonitor.class, MethodType.methodType(void.class, TimeValue.class, TimeValue.class))
+                .asType(MethodType.methodType(BaseMonitor.class, TimeValue.class, TimeValue.class));
+    }
+
+    /**
+     * @return new monitor
+     * @throws ReflectiveOperationException when the constructor is not found
+     */
+    @Benchmark
+    public ContainerMonitor reflection() throws ReflectiveOperationException {
+        return ContainerMonitor.class.getConstructor(TimeValue.class, TimeValue.class).newInstance(window, expire);
+    }
+
+    /**
+     * @return new monitor
+     * @throws Throwable when the constructor fails
+     */
+    @Benchmark
+    public BaseMonitor methodHandle() throws Throwable {
+        return (BaseMonitor) constructor.invokeExact(window, expire);
+    }
+
+    /**
+     * @return new monitor
+     */
+    @Benchmark
+    public ContainerMonitor factory() {
+        return factory.create(window, expire);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args not used
+     * @throws RunnerException when the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MonitorCreationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
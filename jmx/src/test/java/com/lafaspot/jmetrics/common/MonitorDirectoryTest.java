@@ -18,8 +18,22 @@
 
 package com.lafaspot.jmetrics.common;
 
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
 import com.lafaspot.common.types.TimeValue;
+import com.lafaspot.jmetrics.annotation.Metric;
+import org.testng.Assert;
 import org.testng.annotations.Test;
 
 /**
@@ -44,4 +58,438 @@ public class MonitorDirectoryTest {
         directory.removeMBean("one");
         directory.removeMBean("one");
     }
+
+    /**
+     * Many threads create the same set of keys concurrently, every key must be created and registered exactly once.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void getMonitorConcurrentCreation() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        final String prefix = UUID.randomUUID().toString();
+        final List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add(prefix + i);
+        }
+        final int created = CountingMonitor.getCreated();
+        final ConcurrentHashMap<String, CountingMonitor> seen = new ConcurrentHashMap<>();
+        final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[16];
+        for (int i = 0; i < threads.length; i++) {
+            final List<String> order = new ArrayList<>(keys);
+            Collections.shuffle(order);
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (final String key : order) {
+                    final CountingMonitor monitor = directory.getMonitor(key);
+                    final CountingMonitor previous = seen.putIfAbsent(key, monitor);
+                    if (previous != null && previous != monitor) {
+                        failures.add(key);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(failures, Collections.emptyList(), "Different monitor instances returned");
+        Assert.assertEquals(CountingMonitor.getCreated() - created, keys.size(), "Monitor created more than once");
+        for (final String key : keys) {
+            Assert.assertEquals(CountingMonitor.getRegistrations(key), 1, "Monitor registered more than once: " + key);
+            Assert.assertEquals(seen.get(key).getBeanName(), key);
+        }
+    }
+
+    /**
+     * Idle monitors are evicted by the expiry sweeper, active ones are kept.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void expirySweeper() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(1, TimeUnit.MINUTES));
+        final String prefix = UUID.randomUUID().toString();
+        for (int i = 0; i < 1000; i++) {
+            final CountingMonitor monitor = directory.getMonitor(prefix + i);
+            if (i % 2 == 0) {
+                monitor.setLastWrite(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2));
+            }
+        }
+        Assert.assertEquals(directory.getSize(), 1000);
+        directory.startExpirySweeper(new TimeValue(5, TimeUnit.MILLISECONDS), new TimeValue(1, TimeUnit.MILLISECONDS));
+        try {
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (directory.getEvictedCount() < 500 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            directory.stopExpirySweeper();
+        }
+        Assert.assertEquals(directory.getEvictedCount(), 500);
+        Assert.assertEquals(directory.getSize(), 500);
+        Assert.assertTrue(directory.getLastSweepDuration() >= 0);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), i % 2 == 0 ? 0 : 1);
+        }
+        final CountingMonitor monitor = directory.getMonitor(prefix + 0);
+        Assert.assertEquals(CountingMonitor.getRegistrations(prefix + 0), 1);
+        Assert.assertSame(directory.getMonitor(prefix + 0), monitor);
+    }
+
+    /**
+     * New keys get the overflow monitor when the directory is full, least recently used monitors are evicted in the background.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void capacityLru() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(1, TimeUnit.MINUTES));
+        final String prefix = UUID.randomUUID().toString();
+        directory.setCapacity(100, MonitorDirectory.EvictionPolicy.LRU, prefix + "other");
+        Assert.assertEquals(directory.getCapacity(), 100);
+        for (int i = 0; i < 100; i++) {
+            directory.getMonitor(prefix + i);
+        }
+        Thread.sleep(5);
+        for (int i = 0; i < 50; i++) {
+            directory.getMonitor(prefix + i);
+        }
+        // eviction runs on the registrar, hold it so the eviction cannot make room before the second new key
+        final MBeanRegistrar registrar = new MBeanRegistrar(64);
+        directory.setRegistrar(registrar);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        registrar.execute(() -> {
+            try {
+                blocked.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            final CountingMonitor overflow = directory.getMonitor(prefix + "new");
+            Assert.assertSame(directory.getMonitor(prefix + "new2"), overflow);
+            Assert.assertEquals(directory.getOverflowCount(), 2);
+            blocked.countDown();
+            Assert.assertTrue(registrar.flush(new TimeValue(10, TimeUnit.SECONDS)));
+            Assert.assertEquals(overflow.getBeanName(), prefix + "other");
+
+            waitForSize(directory, 90);
+            Assert.assertEquals(directory.getEvictedCount(), 10);
+            for (int i = 0; i < 50; i++) {
+                Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), 1, "Recently used monitor evicted");
+            }
+            final CountingMonitor monitor = directory.getMonitor(prefix + "new");
+            Assert.assertTrue(registrar.flush(new TimeValue(10, TimeUnit.SECONDS)));
+            Assert.assertEquals(monitor.getBeanName(), prefix + "new");
+        } finally {
+            blocked.countDown();
+            registrar.close();
+        }
+    }
+
+    /**
+     * Least frequently used monitors are evicted.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void capacityLfu() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(1, TimeUnit.MINUTES));
+        final String prefix = UUID.randomUUID().toString();
+        directory.setCapacity(20, MonitorDirectory.EvictionPolicy.LFU, prefix + "other");
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j <= i; j++) {
+                directory.getMonitor(prefix + i);
+            }
+        }
+        Assert.assertEquals(directory.getMonitor(prefix + "new").getBeanName(), prefix + "other");
+        waitForSize(directory, 18);
+        Assert.assertEquals(CountingMonitor.getRegistrations(prefix + 0), 0);
+        Assert.assertEquals(CountingMonitor.getRegistrations(prefix + 1), 0);
+        for (int i = 2; i < 20; i++) {
+            Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), 1, "Frequently used monitor evicted");
+        }
+
+        directory.setCapacity(0, MonitorDirectory.EvictionPolicy.LFU, prefix + "other");
+        for (int i = 20; i < 40; i++) {
+            Assert.assertEquals(directory.getMonitor(prefix + i).getBeanName(), prefix + i);
+        }
+        Assert.assertEquals(directory.getSize(), 38);
+    }
+
+    /**
+     * @param directory directory
+     * @param size expected size
+     * @throws InterruptedException when interrupted
+     */
+    private void waitForSize(final MonitorDirectory<?> directory, final int size) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (directory.getSize() > size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(directory.getSize(), size);
+    }
+
+    /**
+     * With a registrar the monitor is returned before it is registered, registration and eviction run in order on the registrar thread.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void deferredRegistration() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(1, TimeUnit.MINUTES));
+        final MBeanRegistrar registrar = new MBeanRegistrar(64);
+        directory.setRegistrar(registrar);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        registrar.execute(() -> {
+            try {
+                blocked.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final String prefix = UUID.randomUUID().toString();
+        try {
+            for (int i = 0; i < 100; i++) {
+                final CountingMonitor monitor = directory.getMonitor(prefix + i);
+                monitor.setLastWrite(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(2));
+                Assert.assertSame(directory.getMonitor(prefix + i), monitor);
+                Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), 0);
+            }
+        } finally {
+            blocked.countDown();
+        }
+        Assert.assertTrue(registrar.flush(new TimeValue(10, TimeUnit.SECONDS)));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), 1);
+        }
+        Assert.assertTrue(registrar.getBatchCount() < registrar.getCompletedCount(), "Registrations not batched");
+
+        directory.startExpirySweeper(new TimeValue(5, TimeUnit.MILLISECONDS), new TimeValue(1, TimeUnit.MILLISECONDS));
+        try {
+            final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (directory.getSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+        } finally {
+            directory.stopExpirySweeper();
+            registrar.close();
+        }
+        Assert.assertEquals(directory.getEvictedCount(), 100);
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(CountingMonitor.getRegistrations(prefix + i), 0);
+        }
+    }
+
+    /**
+     * A directory still holding a closed registrar registers on the calling thread.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void closedRegistrar() throws InterruptedException {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(1, TimeUnit.MINUTES));
+        final MBeanRegistrar registrar = new MBeanRegistrar(64);
+        directory.setRegistrar(registrar);
+        registrar.close();
+        Assert.assertTrue(registrar.flush(new TimeValue(10, TimeUnit.SECONDS)));
+        final String key = UUID.randomUUID().toString();
+        directory.getMonitor(key);
+        Assert.assertEquals(CountingMonitor.getRegistrations(key), 1);
+    }
+
+    /**
+     * Monitors are created by the given factory.
+     */
+    @Test
+    public void getMonitorFromFactory() {
+        final MonitorDirectory<CountingMonitor> directory = new MonitorDirectory<CountingMonitor>(CountingMonitor::new,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(2, TimeUnit.SECONDS));
+        final String key = UUID.randomUUID().toString();
+        final CountingMonitor monitor = directory.getMonitor(key);
+        Assert.assertEquals(monitor.getBeanName(), key);
+        Assert.assertEquals(monitor.getWindow(), 3000);
+        Assert.assertEquals(monitor.getExpireTime(), 2000);
+        Assert.assertSame(directory.getMonitor(key), monitor);
+    }
+
+    /**
+     * Monitor classes without the (TimeValue, TimeValue) constructor are rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void invalidMonitorClass() {
+        new MonitorDirectory<BaseMonitor>(BaseMonitor.class, new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A snapshot reads the same values as the getters, for all monitors in one call and through the MBean operation.
+     *
+     * @throws Exception from the MBean server
+     */
+    @Test
+    public void snapshot() throws Exception {
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        Assert.assertEquals(directory.snapshot().getMonitorCount(), 0);
+        final String prefix = UUID.randomUUID().toString();
+        for (int i = 0; i < 3; i++) {
+            final ContainerMonitor monitor = directory.getMonitor(prefix + i);
+            monitor.setRequestCount(10 * (i + 1));
+            monitor.setErrorCount(i);
+            monitor.flip();
+        }
+        final MonitorSnapshot snapshot = directory.snapshot();
+        Assert.assertEquals(snapshot.getMonitorCount(), 3);
+        Assert.assertEquals(snapshot.getMetricNames().length, 20);
+        final int requests = snapshot.indexOfMetric("Requests");
+        final int errorPercentage = snapshot.indexOfMetric("ErrorPercentage");
+        Assert.assertTrue(requests >= 0 && errorPercentage >= 0);
+        double total = 0;
+        for (int i = 0; i < snapshot.getMonitorCount(); i++) {
+            final ContainerMonitor monitor = directory.getMonitor(snapshot.getMonitorName(i));
+            Assert.assertEquals(snapshot.getValue(requests, i), monitor.getRequests(), 0);
+            Assert.assertEquals(snapshot.getValue(errorPercentage, i), monitor.getErrorPercentage(), 0);
+            Assert.assertEquals(snapshot.getWindowStart(i), monitor.getWindowStart());
+            total += snapshot.getValue(requests, i);
+        }
+        Assert.assertEquals(total, 60, 0);
+
+        directory.registerMBean("com.lafaspot.jmetrics.test");
+        try {
+            final CompositeData data = (CompositeData) ManagementFactory.getPlatformMBeanServer().invoke(new ObjectName(directory.getMBeanName()),
+                    "takeSnapshot", null, null);
+            Assert.assertEquals((String[]) data.get("metrics"), snapshot.getMetricNames());
+            Assert.assertEquals(((long[]) data.get("windowStarts")).length, 3);
+            Assert.assertEquals(((double[][]) data.get("values"))[requests], snapshot.getColumn(requests));
+        } finally {
+            directory.unRegisterMBean();
+        }
+    }
+
+    /**
+     * Monitor with an extra metric and a failing getter.
+     */
+    public static final class ExtendedMonitor extends ContainerMonitor {
+        /**
+         * @param window window
+         * @param expire expire time
+         */
+        public ExtendedMonitor(final TimeValue window, final TimeValue expire) {
+            super(window, expire);
+        }
+
+        /**
+         * @return constant extra metric
+         */
+        @Metric(enable = true, type = "count")
+        public long getExtra() {
+            return 7;
+        }
+
+        @Override
+        @Metric(enable = true, type = "count")
+        public int getRequests() {
+            throw new IllegalStateException("broken getter");
+        }
+    }
+
+    /**
+     * A snapshot of monitors of several classes has the union of their metrics, a failing getter reads as NaN.
+     */
+    @Test
+    public void snapshotMixedClasses() {
+        final String prefix = UUID.randomUUID().toString();
+        final AtomicInteger created = new AtomicInteger();
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(
+                (window, expire) -> created.getAndIncrement() == 0 ? new ContainerMonitor(window, expire) : new ExtendedMonitor(window, expire),
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        final ContainerMonitor plain = directory.getMonitor(prefix + "plain");
+        plain.setRequestCount(5);
+        plain.flip();
+        Assert.assertTrue(directory.getMonitor(prefix + "extended") instanceof ExtendedMonitor);
+        final MonitorSnapshot snapshot = directory.snapshot();
+        Assert.assertEquals(snapshot.getMonitorCount(), 2);
+        final int extra = snapshot.indexOfMetric("Extra");
+        final int requests = snapshot.indexOfMetric("Requests");
+        Assert.assertEquals(snapshot.getMetricNames().length, MetricAccessors.of(ContainerMonitor.class).getNames().length + 1);
+        if (snapshot.getMonitorClass() == ContainerMonitor.class) {
+            Assert.assertEquals(extra, snapshot.getMetricNames().length - 1, "Metrics of other classes come last");
+        }
+        Assert.assertTrue(extra >= 0 && requests >= 0);
+        for (int i = 0; i < snapshot.getMonitorCount(); i++) {
+            if (snapshot.getMonitorName(i).endsWith("plain")) {
+                Assert.assertEquals(snapshot.getValue(requests, i), 5, 0);
+                Assert.assertTrue(Double.isNaN(snapshot.getValue(extra, i)));
+            } else {
+                Assert.assertTrue(Double.isNaN(snapshot.getValue(requests, i)));
+                Assert.assertEquals(snapshot.getValue(extra, i), 7, 0);
+            }
+        }
+    }
+
+    /**
+     * Monitor flipping its window the first time its metrics are read.
+     */
+    public static final class FlippingMonitor extends ContainerMonitor {
+        /** Set once the monitor flipped. */
+        private boolean flipped;
+
+        /**
+         * @param window window
+         * @param expire expire time
+         */
+        public FlippingMonitor(final TimeValue window, final TimeValue expire) {
+            super(window, expire);
+        }
+
+        /**
+         * @return 0, flips the window on the first call
+         */
+        @Metric(enable = true, type = "count")
+        public long getFlipTrigger() {
+            if (!flipped) {
+                flipped = true;
+                flip();
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * A monitor flipping while its row is read is read again, the row is tagged with the window its values come from.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void snapshotFlipDuringRead() throws InterruptedException {
+        final MonitorDirectory<FlippingMonitor> directory = new MonitorDirectory<FlippingMonitor>(FlippingMonitor.class,
+                new TimeValue(1, TimeUnit.MINUTES), new TimeValue(1, TimeUnit.MINUTES));
+        final FlippingMonitor monitor = directory.getMonitor(UUID.randomUUID().toString());
+        // the window starts must differ by more than the clock resolution
+        Thread.sleep(50);
+        monitor.setRequestCount(5);
+        monitor.flip();
+        final long first = monitor.getWindowStart();
+        Thread.sleep(50);
+        monitor.setRequestCount(9);
+        final MonitorSnapshot snapshot = directory.snapshot();
+        Assert.assertNotEquals(monitor.getWindowStart(), first);
+        Assert.assertEquals(snapshot.getWindowStart(0), monitor.getWindowStart());
+        Assert.assertEquals(snapshot.getValue(snapshot.indexOfMetric("Requests"), 0), 9, 0);
+    }
 }
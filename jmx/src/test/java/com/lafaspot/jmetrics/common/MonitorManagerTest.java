@@ -174,4 +174,21 @@ public class MonitorManagerTest {
         Assert.assertEquals(beanName.getKeyProperty("type"), "com.lafaspot.jmetrics.common.ContainerMonitor");
         Assert.assertTrue(beanName.getKeyProperty("namespace").contains("host1 01"));
     }
-}
\ No newline at end of file
+
+    /**
+     * Test for monitor lookup by key.
+     */
+    @Test
+    public void getMonitorByKey() {
+        final MonitorKey key = containerMonitorManager.getMonitorKey(Arrays.asList("host3", "host1"));
+        Assert.assertEquals(key.getNamespace(), Arrays.asList("Field1", "Field2", "Field3", "Field4", "host1", "host3"));
+        Assert.assertEquals(key, containerMonitorManager.getMonitorKey(Arrays.asList("host1", "host3")));
+        Assert.assertEquals(key.hashCode(), containerMonitorManager.getMonitorKey(Arrays.asList("host1", "host3")).hashCode());
+        Assert.assertNotEquals(key, containerMonitorManager.getMonitorKey(Arrays.asList("host1")));
+
+        final ContainerMonitor monitor = containerMonitorManager.getMonitor(key);
+        Assert.assertEquals(monitor.getBeanName(), key.getBeanName());
+        Assert.assertSame(containerMonitorManager.getMonitor(key), monitor);
+        Assert.assertSame(containerMonitorManager.getMonitor(Arrays.asList("host1", "host3")), monitor);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Time to build the CompositeData of thousands of monitor classes at startup, one after the other and on the fork join pool. The monitor
+ * classes are generated and compiled by the setup.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorScanBenchmark {
+    /** Package of the generated monitors. */
+    private static final String PACKAGE = "com.lafaspot.jmetrics.synthetic";
+    /** Metric getters per generated monitor. */
+    private static final int METRICS = 10;
+
+    /** Number of monitor classes. */
+    @Param("2000")
+    private int classes;
+    /** Builds in parallel. */
+    @Param({"false", "true"})
+    private boolean parallel;
+
+    /** Scanner, only used to build CompositeData. */
+    private MonitorScanner scanner;
+    /** Generated monitor classes. */
+    private List<Class<?>> monitorClasses;
+
+    /**
+     * Generates, compiles and loads the monitor classes.
+     *
+     * @throws IOException from writing the sources
+     * @throws ClassNotFoundException when a compiled class is not found
+     */
+    @Setup
+    public void setup() throws IOException, ClassNotFoundException {
+        final Path dir = Files.createTempDirectory("monitors");
+        final List<String> options = new ArrayList<>();
+        options.add("-d");
+        options.add(dir.toString());
+        options.add("-cp");
+        options.add(System.getProperty("java.class.path"));
+        options.add("-proc:none");
+        for (int i = 0; i < classes; i++) {
+            final List<String> source = new ArrayList<>();
+            source.add("package " + PACKAGE + ";");
+            source.add("@com.lafaspot.jmetrics.annotation.MetricClass(name = \"Synthetic" + i + "\")");
+            source.add("public class Synthetic" + i + "Monitor {");
+            for (int j = 0; j < METRICS; j++) {
+                source.add("    @com.lafaspot.jmetrics.annotation.Metric(name = \"metric" + j + "\", type = \"count\")");
+                source.add("    public long getMetric" + j + "() { return 0; }");
+            }
+            source.add("}");
+            final Path file = dir.resolve("Synthetic" + i + "Monitor.java");
+            Files.write(file, source, StandardCharsets.UTF_8);
+            options.add(file.toString());
+        }
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler.run(null, null, null, options.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("Compiling the monitors failed");
+        }
+        final ClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, getClass().getClassLoader());
+        monitorClasses = new ArrayList<>();
+        for (int i = 0; i < classes; i++) {
+            monitorClasses.add(Class.forName(PACKAGE + ".Synthetic" + i + "Monitor", true, loader));
+        }
+        scanner = new MonitorScanner(Collections.<String>emptyList(), Collections.<String>emptyList(), MonitorScanner.ScanMode.LAZY);
+    }
+
+    /**
+     * @return CompositeData by class name
+     * @throws OpenDataException when the CompositeData cannot be built
+     */
+    @Benchmark
+    public Map<String, CompositeData> build() throws OpenDataException {
+        return scanner.buildMetricClassComposites(monitorClasses, parallel);
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args not used
+     * @throws RunnerException when the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MonitorScanBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Time to scrape all metrics of a directory, one MBeanServer getAttribute call per monitor and metric against one
+ * {@link MonitorDirectory#snapshot()}.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MonitorSnapshotBenchmark {
+    /** Number of monitors. */
+    @Param("5000")
+    private int monitors;
+
+    /** Directory. */
+    private MonitorDirectory<ContainerMonitor> directory;
+    /** MBean names of the monitors. */
+    private ObjectName[] names;
+    /** Metric attribute names. */
+    private String[] metrics;
+
+    /**
+     * Creates and registers the monitors.
+     *
+     * @throws JMException when a name is not valid
+     */
+    @Setup
+    public void setup() throws JMException {
+        directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class, new TimeValue(1, TimeUnit.MINUTES),
+                new TimeValue(10, TimeUnit.MINUTES));
+        names = new ObjectName[monitors];
+        for (int i = 0; i < monitors; i++) {
+            final String name = "com.lafaspot.jmetrics.bench:type=ContainerMonitor,id=" + i;
+            directory.getMonitor(name).setRequestCount(i);
+            names[i] = new ObjectName(name);
+        }
+        metrics = directory.snapshot().getMetricNames();
+    }
+
+    /**
+     * Unregisters the monitors.
+     */
+    @TearDown
+    public void tearDown() {
+        for (int i = 0; i < monitors; i++) {
+            directory.getMonitor(names[i].getCanonicalName()).unRegisterMBean();
+        }
+    }
+
+    /**
+     * @param blackhole consumes the values
+     * @throws JMException when an attribute cannot be read
+     */
+    @Benchmark
+    public void getAttribute(final Blackhole blackhole) throws JMException {
+        final MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (final ObjectName name : names) {
+            for (final String metric : metrics) {
+                blackhole.consume(mbs.getAttribute(name, metric));
+            }
+        }
+    }
+
+    /**
+     * @return snapshot of all monitors
+     */
+    @Benchmark
+    public MonitorSnapshot snapshot() {
+        return directory.snapshot();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args not used
+     * @throws RunnerException when the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MonitorSnapshotBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Test for MonitorStateHandler.
+ *
+ */
+public class MonitorStateHandlerTest {
+
+    /**
+     * State adding its stable count to a running total on every flip.
+     */
+    private static class CountState implements MonitorStateHandler.State<CountState>, Mergeable<CountState> {
+        /** Total of all flipped windows. */
+        private final AtomicLong total;
+        /** Count in this window. */
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * @param total total of all flipped windows
+         */
+        CountState(final AtomicLong total) {
+            this.total = total;
+        }
+
+        @Override
+        public void reset(final CountState stable) {
+            total.addAndGet(stable.count.get());
+            count.set(0);
+        }
+
+        @Override
+        public void merge(final CountState other) {
+            count.addAndGet(other.count.get());
+        }
+    }
+
+    /**
+     * Writers race forced and timed flips, every increment must end up in exactly one flipped window.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void flipLosesNoWrites() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MILLISECONDS));
+        final int writes = 100000;
+        final Thread[] writers = new Thread[8];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < writes; j++) {
+                    final CountState current = state.beginWrite();
+                    try {
+                        current.count.incrementAndGet();
+                    } finally {
+                        state.endWrite(current);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread flipper = new Thread(() -> {
+            while (!done.get()) {
+                state.flip();
+            }
+        });
+        final Thread updater = new Thread(() -> {
+            while (!done.get()) {
+                state.update();
+                state.stable();
+            }
+        });
+        flipper.start();
+        updater.start();
+        for (final Thread writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        flipper.join();
+        updater.join();
+        // move the last window to stable, then through reset into the total
+        state.flip();
+        state.flip();
+        Assert.assertEquals(total.get(), (long) writers.length * writes);
+    }
+
+    /**
+     * update flips only once the window has passed.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void updateFlipsAfterWindow() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(50, TimeUnit.MILLISECONDS));
+        final CountState current = state.beginWrite();
+        current.count.addAndGet(3);
+        state.endWrite(current);
+        state.update();
+        Assert.assertSame(state.current(), current);
+        Thread.sleep(50 + 2 * CoarseClock.getDefault().getResolution());
+        state.update();
+        Assert.assertSame(state.stable(), current);
+        Assert.assertEquals(state.stable().count.get(), 3);
+        Assert.assertEquals(state.current().count.get(), 0);
+    }
+
+    /**
+     * The coarse clock follows the system clock within its resolution.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void coarseClock() throws InterruptedException {
+        final CoarseClock clock = new CoarseClock(new TimeValue(5, TimeUnit.MILLISECONDS));
+        try {
+            Assert.assertEquals(clock.getResolution(), 5);
+            final long start = clock.currentTimeMillis();
+            Thread.sleep(50);
+            final long now = clock.currentTimeMillis();
+            Assert.assertTrue(now > start, "Clock did not tick");
+            Assert.assertTrue(now <= System.currentTimeMillis());
+        } finally {
+            clock.close();
+        }
+    }
+
+    /**
+     * Property values that are not positive fall back to the default.
+     */
+    @Test
+    public void positiveProperty() {
+        final String property = "jmetrics.test." + UUID.randomUUID();
+        try {
+            Assert.assertEquals(CoarseClock.positiveProperty(property, 10), 10);
+            System.setProperty(property, "7");
+            Assert.assertEquals(CoarseClock.positiveProperty(property, 10), 7);
+            System.setProperty(property, "0");
+            Assert.assertEquals(CoarseClock.positiveProperty(property, 10), 10);
+            System.setProperty(property, "-5");
+            Assert.assertEquals(CoarseClock.positiveProperty(property, 10), 10);
+            System.setProperty(property, "fast");
+            Assert.assertEquals(CoarseClock.positiveProperty(property, 10), 10);
+        } finally {
+            System.clearProperty(property);
+        }
+    }
+
+    /**
+     * A ring keeps the last windows, slots are reused and merge combines completed windows.
+     */
+    @Test
+    public void ring() {
+        final AtomicLong total = new AtomicLong();
+        final CountState[] states = new CountState[4];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = new CountState(total);
+        }
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(states, new TimeValue(1, TimeUnit.MINUTES),
+                CoarseClock.getDefault());
+        Assert.assertEquals(state.size(), 4);
+        Assert.assertEquals(state.getWindowStart(1), 0);
+        for (int i = 1; i <= 3; i++) {
+            final CountState current = state.beginWrite();
+            current.count.addAndGet(i);
+            state.endWrite(current);
+            state.flip();
+        }
+        Assert.assertSame(state.history(0), states[3]);
+        Assert.assertSame(state.history(1), state.stable());
+        Assert.assertEquals(state.history(1).count.get(), 3);
+        Assert.assertEquals(state.history(2).count.get(), 2);
+        Assert.assertEquals(state.history(3).count.get(), 1);
+        Assert.assertTrue(state.getWindowStart(3) > 0);
+        Assert.assertEquals(state.merge(3, new CountState(total)).count.get(), 6);
+        Assert.assertEquals(state.merge(2, new CountState(total)).count.get(), 5);
+
+        final CountState oldest = state.history(3);
+        state.flip();
+        Assert.assertSame(state.current(), oldest);
+        Assert.assertEquals(state.current().count.get(), 0);
+        Assert.assertEquals(state.history(3).count.get(), 2);
+    }
+
+    /**
+     * A snapshot is published once per flip, reads only flip once the window elapsed.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void snapshotPerFlip() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final SnapshotStateHandler<CountState, long[]> state = new SnapshotStateHandler<CountState, long[]>(new CountState(total),
+                new CountState(total), new TimeValue(50, TimeUnit.MILLISECONDS), (s, start, end) -> new long[] { s.count.get(), start, end });
+        final long[] initial = state.snapshot();
+        Assert.assertEquals(initial[0], 0);
+        CountState current = state.beginWrite();
+        current.count.addAndGet(3);
+        state.endWrite(current);
+        state.flip();
+        final long[] first = state.snapshot();
+        Assert.assertEquals(first[0], 3);
+        Assert.assertEquals(first[1], initial[2]);
+        Assert.assertTrue(first[2] >= first[1]);
+
+        Assert.assertSame(state.snapshot(), first);
+        current = state.beginWrite();
+        current.count.addAndGet(4);
+        state.endWrite(current);
+        Thread.sleep(50 + 2 * CoarseClock.getDefault().getResolution());
+        final long[] second = state.snapshot();
+        Assert.assertEquals(second[0], 4);
+        Assert.assertEquals(second[1], first[2]);
+        Assert.assertSame(state.snapshot(), second);
+
+        // an idle handler reports an empty window once the window elapsed
+        Thread.sleep(50 + 2 * CoarseClock.getDefault().getResolution());
+        Assert.assertEquals(state.snapshot()[0], 0);
+    }
+
+    /**
+     * A snapshotter failure keeps the previous snapshot and does not reach the flipping writer.
+     */
+    @Test
+    public void snapshotterFailure() {
+        final AtomicLong total = new AtomicLong();
+        final AtomicBoolean fail = new AtomicBoolean();
+        final SnapshotStateHandler<CountState, Long> state = new SnapshotStateHandler<CountState, Long>(new CountState(total),
+                new CountState(total), new TimeValue(1, TimeUnit.MINUTES), (s, start, end) -> {
+                    if (fail.get()) {
+                        throw new IllegalStateException("snapshot failed");
+                    }
+                    return s.count.get();
+                });
+        CountState current = state.beginWrite();
+        current.count.addAndGet(3);
+        state.endWrite(current);
+        state.flip();
+        Assert.assertEquals(state.snapshot().longValue(), 3);
+        fail.set(true);
+        state.flip();
+        Assert.assertEquals(state.snapshot().longValue(), 3);
+        current = state.beginWrite();
+        state.endWrite(current);
+        fail.set(false);
+        state.flip();
+        Assert.assertEquals(state.snapshot().longValue(), 0);
+    }
+
+    /**
+     * Every snapshot holds fields of one window, while writers update two counters together and flips race the reads.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void snapshotConsistent() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final SnapshotStateHandler<CountState, long[]> state = new SnapshotStateHandler<CountState, long[]>(new CountState(total),
+                new CountState(total), new TimeValue(1, TimeUnit.MILLISECONDS), (s, start, end) -> new long[] { s.count.get(), total.get() });
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread writer = new Thread(() -> {
+            while (!done.get()) {
+                final CountState current = state.beginWrite();
+                try {
+                    current.count.incrementAndGet();
+                } finally {
+                    state.endWrite(current);
+                }
+            }
+        });
+        final Thread flipper = new Thread(() -> {
+            while (!done.get()) {
+                state.flip();
+            }
+        });
+        writer.start();
+        flipper.start();
+        try {
+            long lastTotal = 0;
+            for (int i = 0; i < 100000; i++) {
+                final long[] snapshot = state.snapshot();
+                // the total is updated by the same flip, it includes the snapshot's window
+                Assert.assertTrue(snapshot[1] >= snapshot[0]);
+                Assert.assertTrue(snapshot[1] >= lastTotal);
+                lastTotal = snapshot[1];
+            }
+        } finally {
+            done.set(true);
+            writer.join();
+            flipper.join();
+        }
+        Assert.assertEquals(state.snapshot()[1], total.get());
+        Assert.assertEquals(state.snapshot()[0], state.stable().count.get());
+    }
+
+    /**
+     * Aligned windows start at multiples of the window, whenever the handler was created.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void aligned() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final long before = System.currentTimeMillis();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(50, TimeUnit.MILLISECONDS), CoarseClock.getDefault(), true);
+        Assert.assertTrue(state.isAligned());
+        final long start = state.getLastUpdate();
+        Assert.assertEquals(start % 50, 0);
+        Assert.assertEquals(state.getWindowStart(0), start);
+        Assert.assertTrue(start > before - 50 - CoarseClock.getDefault().getResolution());
+        Thread.sleep(50 + 2 * CoarseClock.getDefault().getResolution());
+        state.update();
+        Assert.assertEquals(state.getWindowStart(1), start);
+        Assert.assertEquals(state.getWindowStart(0) % 50, 0);
+        Assert.assertTrue(state.getWindowStart(0) >= start + 50);
+        Assert.assertFalse(new MonitorStateHandler<CountState>(new CountState(total), new CountState(total)).isAligned());
+    }
+
+    /**
+     * A reset failure propagates to the flipping caller and leaves the handler usable and unflipped.
+     */
+    @Test(timeOut = 10000)
+    public void resetFailure() {
+        final AtomicBoolean fail = new AtomicBoolean(true);
+        final AtomicLong total = new AtomicLong();
+        // the flip resets the stable state, which becomes the current one
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total) {
+            @Override
+            public void reset(final CountState stable) {
+                if (fail.get()) {
+                    throw new IllegalStateException("reset failed");
+                }
+                super.reset(stable);
+            }
+        }, new TimeValue(1, TimeUnit.MINUTES));
+        final CountState current = state.current();
+        try {
+            state.flip();
+            Assert.fail("Reset failure not propagated");
+        } catch (final IllegalStateException e) {
+            Assert.assertEquals(e.getMessage(), "reset failed");
+        }
+        Assert.assertSame(state.current(), current);
+        final CountState write = state.beginWrite();
+        state.endWrite(write);
+        fail.set(false);
+        state.flip();
+        Assert.assertSame(state.stable(), current);
+    }
+
+    /**
+     * A thread inside a write does not wait for itself, update defers the flip and flip is rejected.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test(timeOut = 10000)
+    public void flipInsideWrite() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MILLISECONDS));
+        final CountState current = state.beginWrite();
+        try {
+            Thread.sleep(2 + 2 * CoarseClock.getDefault().getResolution());
+            state.update();
+            Assert.assertSame(state.current(), current);
+            try {
+                state.flip();
+                Assert.fail("Flip inside a write not rejected");
+            } catch (final IllegalStateException e) {
+                // expected
+            }
+        } finally {
+            state.endWrite(current);
+        }
+        state.update();
+        Assert.assertSame(state.stable(), current);
+    }
+
+    /**
+     * A write open on one handler does not hold back the flips of another handler.
+     */
+    @Test(timeOut = 10000)
+    public void writeOnOtherHandler() {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> writing = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MILLISECONDS));
+        final MonitorStateHandler<CountState> other = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MILLISECONDS));
+        final CountState current = writing.beginWrite();
+        try {
+            final CountState otherCurrent = other.current();
+            other.flip();
+            Assert.assertSame(other.stable(), otherCurrent);
+        } finally {
+            writing.endWrite(current);
+        }
+    }
+
+    /**
+     * Ending a write with a state the handler does not own is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void endWriteForeignState() {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MINUTES));
+        state.endWrite(new CountState(total));
+    }
+
+    /**
+     * A writer that never ends its write makes the flip give up instead of blocking the handler.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test(timeOut = 10000)
+    public void leakedWrite() throws InterruptedException {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total), new CountState(total),
+                new TimeValue(1, TimeUnit.MINUTES));
+        final Thread leaking = new Thread(state::beginWrite);
+        leaking.start();
+        leaking.join();
+        final CountState current = state.current();
+        state.flip();
+        Assert.assertSame(state.current(), current, "Flip did not give up");
+        final CountState written = state.beginWrite();
+        state.endWrite(written);
+        Assert.assertSame(written, current);
+    }
+
+    /**
+     * The current and stable states can be of different subclasses of the state type.
+     */
+    @Test
+    public void mixedStateClasses() {
+        final AtomicLong total = new AtomicLong();
+        final MonitorStateHandler<CountState> state = new MonitorStateHandler<CountState>(new CountState(total) {
+        }, new CountState(total) {
+        }, new TimeValue(1, TimeUnit.MINUTES));
+        final CountState current = state.current();
+        current.count.incrementAndGet();
+        state.flip();
+        Assert.assertSame(state.stable(), current);
+        Assert.assertEquals(state.stable().count.get(), 1);
+    }
+
+    /**
+     * Window indexes outside the ring are rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void historyOutOfRange() {
+        final AtomicLong total = new AtomicLong();
+        new MonitorStateHandler<CountState>(new CountState(total), new CountState(total)).history(2);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+import com.lafaspot.jmetrics.annotation.Metric;
+
+/**
+ * Test for OpenMetricsExporter.
+ *
+ */
+public class OpenMetricsExporterTest {
+    /**
+     * Families are named after the metric class and attribute, samples are labelled with the escaped MBean name.
+     *
+     * @throws Exception from writing the exposition
+     */
+    @Test
+    public void scrape() throws Exception {
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        final StringBuilder escapes = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            escapes.append('"');
+        }
+        // more than the initial buffer once escaped
+        final String name = escapes + "\"\\é" + UUID.randomUUID();
+        final ContainerMonitor monitor = directory.getMonitor(name);
+        monitor.setRequestCount(42);
+        monitor.setErrorCount(1);
+        monitor.recordLatency(7);
+        monitor.flip();
+        final OpenMetricsExporter exporter = new OpenMetricsExporter();
+        exporter.addDirectory(directory);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.scrape(out);
+        final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        final String label = "{monitor=\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"} ";
+        Assert.assertTrue(text.contains("# TYPE container_monitor_requests gauge\n"), text);
+        Assert.assertTrue(text.contains("container_monitor_requests" + label + monitor.getRequests() + "\n"), text);
+        Assert.assertTrue(text.contains("# UNIT container_monitor_latency_max_time time\n"), text);
+        Assert.assertTrue(text.contains("container_monitor_latency_max_time" + label + "7\n"), text);
+        final String errorPercentage = Double.toString(monitor.getErrorPercentage());
+        Assert.assertTrue(text.contains("container_monitor_error_percentage_percentage" + label + errorPercentage + "\n"), text);
+        Assert.assertTrue(text.endsWith("# EOF\n"));
+
+        // a second scrape reuses the buffer and renders the same
+        out.reset();
+        exporter.scrape(out);
+        Assert.assertEquals(new String(out.toByteArray(), StandardCharsets.UTF_8), text);
+    }
+
+    /**
+     * The endpoint serves the exposition with the OpenMetrics content type.
+     *
+     * @throws Exception from the HTTP server
+     */
+    @Test
+    public void http() throws Exception {
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>(ContainerMonitor.class,
+                new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        directory.getMonitor(UUID.randomUUID().toString()).setRequestCount(1);
+        try (OpenMetricsExporter exporter = new OpenMetricsExporter()) {
+            exporter.addDirectory(directory);
+            exporter.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            final URL url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), exporter.getAddress().getPort(),
+                    OpenMetricsExporter.PATH);
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            Assert.assertEquals(connection.getResponseCode(), 200);
+            Assert.assertEquals(connection.getContentType(), OpenMetricsExporter.CONTENT_TYPE);
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final InputStream in = connection.getInputStream();
+            try {
+                final byte[] chunk = new byte[4096];
+                for (int n = in.read(chunk); n >= 0; n = in.read(chunk)) {
+                    body.write(chunk, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            exporter.scrape(expected);
+            Assert.assertEquals(body.toString("UTF-8"), expected.toString("UTF-8"));
+        }
+    }
+
+    /**
+     * Monitor class without MetricClass annotation, its families are named after its simple name.
+     */
+    public static final class Left {
+        /**
+         * Monitor with an extra metric.
+         */
+        public static final class Probe extends ContainerMonitor {
+            /**
+             * @param window window
+             * @param expire expire time
+             */
+            public Probe(final TimeValue window, final TimeValue expire) {
+                super(window, expire);
+            }
+
+            /**
+             * @return constant extra metric
+             */
+            @Metric(enable = true, type = "count")
+            public long getExtra() {
+                return 7;
+            }
+        }
+    }
+
+    /**
+     * Second monitor class of the same simple name.
+     */
+    public static final class Right {
+        /**
+         * Monitor sharing the families of Left.Probe.
+         */
+        public static final class Probe extends ContainerMonitor {
+            /**
+             * @param window window
+             * @param expire expire time
+             */
+            public Probe(final TimeValue window, final TimeValue expire) {
+                super(window, expire);
+            }
+        }
+    }
+
+    /**
+     * Monitors of several classes in one directory are rendered under the families of their own class, families of the same name are
+     * rendered once.
+     *
+     * @throws Exception from writing the exposition
+     */
+    @Test
+    public void mixedClasses() throws Exception {
+        final AtomicInteger created = new AtomicInteger();
+        final MonitorDirectory<ContainerMonitor> directory = new MonitorDirectory<ContainerMonitor>((window, expire) -> {
+            switch (created.getAndIncrement()) {
+            case 0:
+                return new ContainerMonitor(window, expire);
+            case 1:
+                return new Left.Probe(window, expire);
+            default:
+                return new Right.Probe(window, expire);
+            }
+        }, new TimeValue(3, TimeUnit.SECONDS), new TimeValue(3, TimeUnit.SECONDS));
+        final String prefix = UUID.randomUUID().toString();
+        final String[] names = {prefix + "plain", prefix + "left", prefix + "right"};
+        for (int i = 0; i < names.length; i++) {
+            final ContainerMonitor monitor = directory.getMonitor(names[i]);
+            monitor.setRequestCount(i + 1);
+            monitor.flip();
+        }
+        final MonitorDirectory<Left.Probe> other = new MonitorDirectory<Left.Probe>(Left.Probe.class, new TimeValue(3, TimeUnit.SECONDS),
+                new TimeValue(3, TimeUnit.SECONDS));
+        other.getMonitor(prefix + "other").setRequestCount(9);
+        other.getMonitor(prefix + "other").flip();
+        final OpenMetricsExporter exporter = new OpenMetricsExporter();
+        exporter.addDirectory(directory);
+        exporter.addDirectory(other);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.scrape(out);
+        final String text = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(text.contains("container_monitor_requests{monitor=\"" + names[0] + "\"} 1\n"), text);
+        Assert.assertFalse(text.contains("container_monitor_requests{monitor=\"" + names[1]), text);
+        Assert.assertTrue(text.contains("probe_extra{monitor=\"" + names[1] + "\"} 7\n"), text);
+        Assert.assertTrue(text.contains("probe_extra{monitor=\"" + prefix + "other\"} 7\n"), text);
+        Assert.assertFalse(text.contains("probe_extra{monitor=\"" + names[2]), text);
+        final int type = text.indexOf("# TYPE probe_requests gauge\n");
+        Assert.assertTrue(type >= 0, text);
+        Assert.assertEquals(text.indexOf("# TYPE probe_requests", type + 1), -1, "Family rendered twice");
+        final String family = text.substring(type, text.indexOf("# HELP", type));
+        Assert.assertTrue(family.contains("probe_requests{monitor=\"" + names[1] + "\"} 2\n"), family);
+        Assert.assertTrue(family.contains("probe_requests{monitor=\"" + names[2] + "\"} 3\n"), family);
+        Assert.assertTrue(family.contains("probe_requests{monitor=\"" + prefix + "other\"} 9\n"), family);
+    }
+
+    /**
+     * Camel case names become snake case metric names.
+     */
+    @Test
+    public void snakeCase() {
+        Assert.assertEquals(OpenMetricsExporter.snakeCase("ContainerMonitor"), "container_monitor");
+        Assert.assertEquals(OpenMetricsExporter.snakeCase("LatencyP999"), "latency_p999");
+        Assert.assertEquals(OpenMetricsExporter.snakeCase("Responses5xx"), "responses5xx");
+        Assert.assertEquals(OpenMetricsExporter.snakeCase("9 lives"), "_9_lives");
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test for QuantileSketch.
+ *
+ */
+public class QuantileSketchTest {
+
+    /**
+     * Quantiles of values spread over twelve orders of magnitude stay within the relative accuracy.
+     */
+    @Test
+    public void relativeAccuracy() {
+        final QuantileSketch sketch = new QuantileSketch();
+        final Random random = new Random(42);
+        final long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1 + (long) Math.pow(10, random.nextDouble() * 12);
+            sketch.record(values[i]);
+        }
+        Arrays.sort(values);
+        Assert.assertEquals(sketch.getCount(), values.length);
+        Assert.assertEquals(sketch.getMin(), values[0]);
+        Assert.assertEquals(sketch.getMax(), values[values.length - 1]);
+        for (final double quantile : new double[] {0, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            final long expected = values[(int) (quantile * (values.length - 1))];
+            final long actual = sketch.getValueAtQuantile(quantile);
+            Assert.assertEquals(actual, expected, expected * sketch.getAccuracy() + 1, "Quantile " + quantile);
+        }
+    }
+
+    /**
+     * Zero and negative values count as 0, an empty sketch returns 0.
+     */
+    @Test
+    public void zeroValues() {
+        final QuantileSketch sketch = new QuantileSketch();
+        Assert.assertEquals(sketch.getValueAtQuantile(0.5), 0);
+        Assert.assertEquals(sketch.getMax(), 0);
+        sketch.record(-3);
+        Assert.assertEquals(sketch.getMin(), 0);
+        Assert.assertEquals(sketch.getMax(), 0);
+        sketch.record(0);
+        sketch.record(Long.MAX_VALUE);
+        Assert.assertEquals(sketch.getMin(), 0);
+        Assert.assertEquals(sketch.getValueAtQuantile(0.5), 0);
+        Assert.assertEquals(sketch.getValueAtQuantile(1), Long.MAX_VALUE, Long.MAX_VALUE * sketch.getAccuracy());
+    }
+
+    /**
+     * Merged sketches answer for the union of the values, reset clears the sketch.
+     */
+    @Test
+    public void mergeAndReset() {
+        final QuantileSketch a = new QuantileSketch();
+        final QuantileSketch b = new QuantileSketch();
+        for (int i = 0; i < 100; i++) {
+            a.record(100);
+            b.record(1000000);
+        }
+        a.merge(b);
+        Assert.assertEquals(a.getCount(), 200);
+        Assert.assertEquals(a.getMin(), 100);
+        Assert.assertEquals(a.getMax(), 1000000);
+        Assert.assertEquals(a.getValueAtQuantile(0.25), 100, 1);
+        Assert.assertEquals(a.getValueAtQuantile(0.75), 1000000, 10000);
+
+        a.reset(b);
+        Assert.assertEquals(a.getCount(), 0);
+        Assert.assertEquals(a.getValueAtQuantile(0.5), 0);
+        Assert.assertEquals(b.getCount(), 100);
+    }
+
+    /**
+     * The finest accuracy keeps its bins exact across pages, values of very different magnitudes are answered within the accuracy.
+     */
+    @Test
+    public void fineAccuracy() {
+        final QuantileSketch sketch = new QuantileSketch(0.0001);
+        final long[] values = {1, 7, 1000, 123456789, Long.MAX_VALUE / 3};
+        for (final long value : values) {
+            sketch.record(value);
+        }
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertEquals(sketch.getValueAtQuantile(i / (double) (values.length - 1)), values[i], values[i] * sketch.getAccuracy());
+        }
+        sketch.reset(sketch);
+        Assert.assertEquals(sketch.getValueAtQuantile(1), 0);
+    }
+
+    /**
+     * Sketches of different accuracy cannot be merged.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void mergeAccuracyMismatch() {
+        new QuantileSketch(0.01).merge(new QuantileSketch(0.02));
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Test for SlidingWindow.
+ *
+ */
+public class SlidingWindowTest {
+
+    /**
+     * Bucket counting requests.
+     */
+    private static class Bucket implements MonitorStateHandler.State<Bucket> {
+        /** Requests in this bucket. */
+        private final AtomicLong requests = new AtomicLong();
+
+        @Override
+        public void reset(final Bucket stable) {
+            requests.set(0);
+        }
+
+        /**
+         * @return requests in this bucket
+         */
+        long getRequests() {
+            return requests.get();
+        }
+    }
+
+    /**
+     * @param count number of buckets
+     * @return new buckets
+     */
+    private static Bucket[] buckets(final int count) {
+        final Bucket[] buckets = new Bucket[count];
+        for (int i = 0; i < count; i++) {
+            buckets[i] = new Bucket();
+        }
+        return buckets;
+    }
+
+    /**
+     * @param window the window
+     * @param requests requests to add to the current bucket
+     */
+    private static void add(final SlidingWindow<Bucket> window, final long requests) {
+        final Bucket current = window.beginWrite();
+        try {
+            current.requests.addAndGet(requests);
+        } finally {
+            window.endWrite(current);
+        }
+    }
+
+    /**
+     * Sum and rate include the current bucket and the completed buckets within the span.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void sumAndRate() throws InterruptedException {
+        final SlidingWindow<Bucket> window = new SlidingWindow<Bucket>(buckets(6), new TimeValue(1, TimeUnit.MINUTES));
+        Assert.assertEquals(window.getHandler().getWindow().toMillis(), 10000);
+        add(window, 5);
+        Assert.assertEquals(window.sum(Bucket::getRequests), 5);
+        window.getHandler().flip();
+        add(window, 7);
+        Assert.assertEquals(window.sum(Bucket::getRequests), 12);
+
+        Thread.sleep(50);
+        final double rate = window.rate(Bucket::getRequests, TimeUnit.SECONDS);
+        Assert.assertTrue(rate > 0 && rate <= 12 * 1000 / 40.0, "Unexpected rate " + rate);
+    }
+
+    /**
+     * Buckets older than the span are skipped even when they were not rotated out.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void staleBucketsSkipped() throws InterruptedException {
+        final CoarseClock clock = new CoarseClock(new TimeValue(1, TimeUnit.MILLISECONDS));
+        try {
+            final SlidingWindow<Bucket> window = new SlidingWindow<Bucket>(buckets(4), new TimeValue(100, TimeUnit.MILLISECONDS), clock);
+            add(window, 3);
+            Assert.assertEquals(window.sum(Bucket::getRequests), 3);
+            Thread.sleep(200);
+            Assert.assertEquals(window.sum(Bucket::getRequests), 0);
+            Assert.assertEquals(window.rate(Bucket::getRequests, TimeUnit.SECONDS), 0.0);
+        } finally {
+            clock.close();
+        }
+    }
+
+    /**
+     * A span shorter than one millisecond per bucket is rejected.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void spanTooShort() {
+        new SlidingWindow<Bucket>(buckets(60), new TimeValue(10, TimeUnit.MILLISECONDS));
+    }
+}
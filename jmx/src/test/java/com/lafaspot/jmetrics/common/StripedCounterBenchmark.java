@@ -0,0 +1,84 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the AtomicLong write path used by monitor state classes with {@link StripedCounter}. Run with 1, 8 and 64 writer threads through
+ * {@link #main(String[])}.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StripedCounterBenchmark {
+    /** Writer thread counts to compare. */
+    private static final int[] THREADS = {1, 8, 64};
+
+    /** Shared atomic counter. */
+    private final AtomicLong atomicCounter = new AtomicLong();
+
+    /** Shared striped counter. */
+    private final StripedCounter stripedCounter = new StripedCounter();
+
+    /**
+     * @return new value
+     */
+    @Benchmark
+    public long atomicLong() {
+        return atomicCounter.addAndGet(1);
+    }
+
+    /**
+     * Striped write.
+     */
+    @Benchmark
+    public void striped() {
+        stripedCounter.add(1);
+    }
+
+    /**
+     * Runs the benchmark for every thread count.
+     *
+     * @param args not used
+     * @throws RunnerException when the benchmark fails
+     */
+    public static void main(final String[] args) throws RunnerException {
+        for (final int threads : THREADS) {
+            new Runner(new OptionsBuilder().include(StripedCounterBenchmark.class.getSimpleName()).threads(threads).build()).run();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+
+/**
+ * Test for the striped window counters.
+ *
+ */
+public class StripedCounterTest {
+
+    /**
+     * State using striped counters.
+     */
+    private static class CounterState implements MonitorStateHandler.State<CounterState> {
+        /** Request count. */
+        private final StripedCounter requests = new StripedCounter();
+        /** Max time. */
+        private final StripedMaxCounter maxTime = new StripedMaxCounter();
+
+        @Override
+        public void reset(final CounterState stable) {
+            requests.reset(stable.requests);
+            maxTime.reset(stable.maxTime);
+        }
+    }
+
+    /**
+     * Concurrent writers on the current copy.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void testConcurrentAdd() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final StripedMaxCounter max = new StripedMaxCounter();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int id = i;
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    counter.increment();
+                    counter.add(2);
+                    max.record(id * 10000 + j);
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(counter.get(), 8 * 10000 * 3);
+        Assert.assertEquals(max.get(), 7 * 10000 + 9999);
+        Assert.assertFalse(counter.isSealed());
+    }
+
+    /**
+     * Stable copy is sealed on flip, current copy is cleared.
+     */
+    @Test
+    public void testFlip() {
+        final MonitorStateHandler<CounterState> state = new MonitorStateHandler<>(new CounterState(), new CounterState(),
+                new TimeValue(1, TimeUnit.HOURS));
+        state.current().requests.add(5);
+        state.current().maxTime.record(12);
+        state.current().maxTime.record(3);
+        state.flip();
+
+        Assert.assertTrue(state.stable().requests.isSealed());
+        Assert.assertEquals(state.stable().requests.get(), 5);
+        Assert.assertEquals(state.stable().maxTime.get(), 12);
+        Assert.assertFalse(state.current().requests.isSealed());
+        Assert.assertEquals(state.current().requests.get(), 0);
+        Assert.assertEquals(state.current().maxTime.get(), 0);
+
+        state.current().requests.increment();
+        Assert.assertEquals(state.stable().requests.get(), 5);
+        state.flip();
+        Assert.assertEquals(state.stable().requests.get(), 1);
+        Assert.assertEquals(state.stable().maxTime.toString(), "0");
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common.processor;
+
+import com.lafaspot.jmetrics.annotation.Metric;
+import com.lafaspot.jmetrics.annotation.MetricCheck;
+import com.lafaspot.jmetrics.annotation.MetricClass;
+
+/**
+ * Declarative monitor, RequestMetricsMonitor and RequestMetricsMonitorMBean are generated from it.
+ *
+ */
+@MetricClass(name = "RequestMetrics", applications = { "admin" })
+public interface RequestMetrics {
+    /**
+     * @return requests in the last window
+     */
+    @Metric(type = "count")
+    long getRequests();
+
+    /**
+     * @return errors in the last window
+     */
+    @Metric(type = "count")
+    @MetricCheck(type = "ratio", expression = "Errors / Requests", maxDeviation = 0.05)
+    int getErrors();
+
+    /**
+     * @return longest request time in the last window
+     */
+    @Metric(type = "max", unit = "time")
+    long getMaxTime();
+}
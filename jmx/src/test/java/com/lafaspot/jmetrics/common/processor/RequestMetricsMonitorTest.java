@@ -0,0 +1,125 @@
+/*
+ * Copyright [yyyy] [name of copyright owner]
+ * 
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *  ====================================================================
+ */
+package com.lafaspot.jmetrics.common.processor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.lafaspot.common.types.TimeValue;
+import com.lafaspot.jmetrics.annotation.Metric;
+import com.lafaspot.jmetrics.annotation.MetricCheck;
+import com.lafaspot.jmetrics.annotation.MetricClass;
+import com.lafaspot.jmetrics.common.MonitorDirectory;
+
+/**
+ * Test for the monitor generated from RequestMetrics.
+ *
+ */
+public class RequestMetricsMonitorTest {
+
+    /**
+     * Writers update the current window, getters read the stable one.
+     *
+     * @throws Exception on JMX errors
+     */
+    @Test
+    public void generatedMonitor() throws Exception {
+        final MonitorDirectory<RequestMetricsMonitor> directory = new MonitorDirectory<RequestMetricsMonitor>(RequestMetricsMonitor.FACTORY,
+                new TimeValue(5, TimeUnit.MINUTES), new TimeValue(10, TimeUnit.MINUTES));
+        final String beanName = "com.lafaspot.jmetrics.common.processor:type=RequestMetricsMonitor,id=" + UUID.randomUUID();
+        final RequestMetricsMonitor monitor = directory.getMonitor(beanName);
+        monitor.addRequests(10);
+        monitor.incrementRequests();
+        monitor.incrementErrors();
+        monitor.recordMaxTime(12);
+        monitor.recordMaxTime(7);
+        Assert.assertEquals(monitor.getRequests(), 0);
+
+        monitor.flip();
+        Assert.assertEquals(monitor.getRequests(), 11);
+        Assert.assertEquals(monitor.getErrors(), 1);
+        Assert.assertEquals(monitor.getMaxTime(), 12);
+        Assert.assertEquals(monitor.getWindow(), TimeUnit.MINUTES.toMillis(5));
+        Assert.assertEquals(monitor.getExpireTime(), TimeUnit.MINUTES.toMillis(10));
+        Assert.assertTrue(monitor.getLastWrite() > 0);
+        Assert.assertTrue(monitor.getLastUpdate() > 0);
+        Assert.assertTrue(monitor.getUptime() >= 0);
+
+        final ObjectName name = new ObjectName(beanName);
+        Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Requests"), 11L);
+        Assert.assertEquals(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "MaxTime"), 12L);
+
+        monitor.flip();
+        Assert.assertEquals(monitor.getRequests(), 0);
+        Assert.assertEquals(monitor.getMaxTime(), 0);
+
+        monitor.unRegisterMBean();
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        Assert.assertEquals(directory.getSize(), 0);
+    }
+
+    /**
+     * A monitor never registered can be unregistered, its getters read the snapshot of the last flip.
+     *
+     * @throws InterruptedException when interrupted
+     */
+    @Test
+    public void unregisteredMonitor() throws InterruptedException {
+        final RequestMetricsMonitor monitor = new RequestMetricsMonitor(new TimeValue(5, TimeUnit.MINUTES), new TimeValue(10, TimeUnit.MINUTES));
+        monitor.unRegisterMBean();
+        final long start = monitor.getWindowStart();
+        Assert.assertEquals(monitor.getLastUpdate(), start);
+
+        monitor.incrementRequests();
+        // the coarse clock must move so the windows differ
+        Thread.sleep(50);
+        monitor.flip();
+        Assert.assertEquals(monitor.getRequests(), 1);
+        Assert.assertEquals(monitor.getWindowStart(), start);
+        Assert.assertTrue(monitor.getLastUpdate() > start);
+    }
+
+    /**
+     * The interface annotations are copied to the monitor, so it is scanned like a hand written one.
+     *
+     * @throws NoSuchMethodException when a getter is missing
+     */
+    @Test
+    public void annotationsCopied() throws NoSuchMethodException {
+        final MetricClass metricClass = RequestMetricsMonitor.class.getAnnotation(MetricClass.class);
+        Assert.assertEquals(metricClass.name(), "RequestMetrics");
+        Assert.assertEquals(metricClass.applications(), new String[] {"admin"});
+        Assert.assertEquals(RequestMetricsMonitor.class.getMethod("getMaxTime").getAnnotation(Metric.class).type(), "max");
+        Assert.assertEquals(RequestMetricsMonitor.class.getMethod("getErrors").getAnnotation(MetricCheck.class).expression(), "Errors / Requests");
+
+        int metrics = 0;
+        for (final Method method : RequestMetricsMonitor.class.getMethods()) {
+            if (method.isAnnotationPresent(Metric.class)) {
+                metrics++;
+            }
+        }
+        Assert.assertEquals(metrics, 3);
+    }
+}